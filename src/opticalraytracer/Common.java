@@ -118,6 +118,28 @@ final public class Common {
 		}
 	}
 
+	// the halves of wrapTag(), for content written between them
+
+	final static String openTag(String tag, String also, boolean linefeeds) {
+		return String.format((linefeeds) ? "<%s %s>\n" : "<%s %s>", tag, also);
+	}
+
+	final static String closeTag(String tag, boolean linefeeds) {
+		return String.format((linefeeds) ? "\n</%s>\n" : "</%s>", tag);
+	}
+
+	// the FNV-1a hash of the characters of s, continuing from h --
+	// start from hashSeed
+
+	final static long hashSeed = 0xcbf29ce484222325L;
+
+	final static long hash64(long h, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			h = (h ^ s.charAt(i)) * 0x100000001b3L;
+		}
+		return h;
+	}
+
 	final static double sign(double v) {
 		return (v < 0) ? -1 : 1;
 	}
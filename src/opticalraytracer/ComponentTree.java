@@ -0,0 +1,255 @@
+/***************************************************************************
+ *   Copyright (C) 2014 by Paul Lutus                                      *
+ *   lutusp@arachnoid.com                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+
+package opticalraytracer;
+
+import static java.lang.Math.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+// A bounding volume hierarchy over the component list, made of the
+// components' bounding circles. It is searched nearest-first, and
+// a subtree is skipped once its nearest possible hit is farther
+// than the best hit found so far, so a large scene costs about
+// as much per ray as a small one.
+
+final public class ComponentTree {
+	// components per leaf
+	static final int leafSize = 4;
+	// components in the order they were added to the list
+	OpticalComponent[] members;
+	// leaf order, as indices into members
+	int[] order;
+	// node bounding circles
+	double[] cx, cy, cr;
+	// child nodes, or -1 for a leaf
+	int[] left, right;
+	// leaf range in order
+	int[] first, last;
+	int nodes = 0;
+	// root radius when built, a refit that grows it
+	// well beyond this calls for a rebuild
+	double builtRadius;
+
+	ComponentTree(ArrayList<OpticalComponent> list) {
+		int n = list.size();
+		members = list.toArray(new OpticalComponent[n]);
+		order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		int size = max(1, 2 * n);
+		cx = new double[size];
+		cy = new double[size];
+		cr = new double[size];
+		left = new int[size];
+		right = new int[size];
+		first = new int[size];
+		last = new int[size];
+		if (n > 0) {
+			build(0, n);
+			refit();
+		}
+		builtRadius = cr[0];
+	}
+
+	// returns a tree for the list: this one refitted to the
+	// components' current bounds, or a new one if components were
+	// added or deleted or have moved too far for this topology --
+	// a scene snapshot replaces each edited component, so the
+	// members are taken from the list by position
+
+	ComponentTree update(ArrayList<OpticalComponent> list) {
+		if (list.size() == members.length) {
+			list.toArray(members);
+			refit();
+			if (cr[0] <= builtRadius * 2) {
+				return this;
+			}
+		}
+		return new ComponentTree(list);
+	}
+
+	// nodes are created parent first, so children always have the
+	// higher index
+
+	private int build(int from, int to) {
+		int node = nodes++;
+		first[node] = from;
+		last[node] = to;
+		if (to - from <= leafSize) {
+			left[node] = right[node] = -1;
+		} else {
+			// split at the median along the wider axis
+			double minx = Double.POSITIVE_INFINITY, maxx = Double.NEGATIVE_INFINITY;
+			double miny = Double.POSITIVE_INFINITY, maxy = Double.NEGATIVE_INFINITY;
+			for (int i = from; i < to; i++) {
+				OpticalComponent oc = members[order[i]];
+				minx = min(minx, oc.boundX);
+				maxx = max(maxx, oc.boundX);
+				miny = min(miny, oc.boundY);
+				maxy = max(maxy, oc.boundY);
+			}
+			final boolean xAxis = maxx - minx >= maxy - miny;
+			Integer[] range = new Integer[to - from];
+			for (int i = from; i < to; i++) {
+				range[i - from] = order[i];
+			}
+			Arrays.sort(range, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					OpticalComponent oa = members[a], ob = members[b];
+					return (xAxis) ? Double.compare(oa.boundX, ob.boundX)
+							: Double.compare(oa.boundY, ob.boundY);
+				}
+			});
+			for (int i = from; i < to; i++) {
+				order[i] = range[i - from];
+			}
+			int mid = (from + to) >>> 1;
+			left[node] = build(from, mid);
+			right[node] = build(mid, to);
+		}
+		return node;
+	}
+
+	// recompute the node circles bottom-up from the components'
+	// current bounding circles
+
+	void refit() {
+		for (int node = nodes - 1; node >= 0; node--) {
+			if (left[node] < 0) {
+				OpticalComponent oc = members[order[first[node]]];
+				setCircle(node, oc.boundX, oc.boundY, oc.boundRadius);
+				for (int i = first[node] + 1; i < last[node]; i++) {
+					oc = members[order[i]];
+					enclose(node, oc.boundX, oc.boundY, oc.boundRadius);
+				}
+			} else {
+				int l = left[node], r = right[node];
+				setCircle(node, cx[l], cy[l], cr[l]);
+				enclose(node, cx[r], cy[r], cr[r]);
+			}
+		}
+	}
+
+	private void setCircle(int node, double x, double y, double r) {
+		cx[node] = x;
+		cy[node] = y;
+		cr[node] = r;
+	}
+
+	// grow a node's circle to enclose another circle
+
+	private void enclose(int node, double x, double y, double r) {
+		double dx = x - cx[node];
+		double dy = y - cy[node];
+		double d = sqrt(dx * dx + dy * dy);
+		if (d + r <= cr[node]) {
+			return;
+		}
+		if (d + cr[node] <= r) {
+			setCircle(node, x, y, r);
+			return;
+		}
+		double nr = (d + cr[node] + r) / 2;
+		double f = (nr - cr[node]) / d;
+		// a margin for rounding
+		setCircle(node, cx[node] + dx * f, cy[node] + dy * f,
+				nr * (1 + 1e-9));
+	}
+
+	// the squared range from the ray origin to the nearest point
+	// of a circle the ray can reach, or -1 if the ray misses it
+
+	static double entryRange(NearestHit hit, double x, double y, double r) {
+		double dx = hit.bx - hit.ax;
+		double dy = hit.by - hit.ay;
+		double wx = x - hit.ax;
+		double wy = y - hit.ay;
+		double ww = wx * wx + wy * wy;
+		double rr = r * r;
+		if (ww <= rr) {
+			return 0;
+		}
+		double t = wx * dx + wy * dy;
+		if (t <= 0 || ww - t * t / (dx * dx + dy * dy) > rr) {
+			return -1;
+		}
+		double e = sqrt(ww) - r;
+		return e * e;
+	}
+
+	// distance from the ray origin to a node's circle
+
+	private double distance(NearestHit hit, int node) {
+		double dx = cx[node] - hit.ax;
+		double dy = cy[node] - hit.ay;
+		return sqrt(dx * dx + dy * dy) - cr[node];
+	}
+
+	// offers the candidates of every component that may hold
+	// a nearer hit than the best one so far
+
+	void findNearest(NearestHit hit, double[] points) {
+		if (members.length == 0) {
+			return;
+		}
+		int[] stack = hit.stack;
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			int node = stack[--sp];
+			double e = entryRange(hit, cx[node], cy[node], cr[node]);
+			// equal ranges can still win on rank
+			if (e < 0 || e > hit.m) {
+				continue;
+			}
+			if (left[node] < 0) {
+				for (int i = first[node]; i < last[node]; i++) {
+					int index = order[i];
+					OpticalComponent oc = members[index];
+					double ce = entryRange(hit, oc.boundX, oc.boundY,
+							oc.boundRadius);
+					if (ce >= 0 && ce <= hit.m) {
+						hit.offerComponent(oc, index, points);
+					}
+				}
+			} else {
+				int l = left[node], r = right[node];
+				double dl = distance(hit, l);
+				double dr = distance(hit, r);
+				if (sp + 2 > stack.length) {
+					stack = hit.stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				// the nearer child is searched first
+				if (dl <= dr) {
+					stack[sp++] = r;
+					stack[sp++] = l;
+				} else {
+					stack[sp++] = l;
+					stack[sp++] = r;
+				}
+			}
+		}
+	}
+}
@@ -27,6 +27,7 @@ import java.awt.event.FocusEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
+import javax.swing.JComboBox;
 import javax.swing.JTable;
 import javax.swing.SwingUtilities;
 
@@ -35,6 +36,11 @@ final public class DataTableDisplay extends JTable {
 	OpticalRayTracer parent;
 	DataTableModel dataTableModel;
 	int hScroll, vScroll;
+	// the first choices of the filter controls
+	static final String anyEvent = "Any event";
+	static final String anyDestination = "Any destination";
+	// set while the filter controls are being refilled
+	boolean suppressFilter = false;
 	
 	public DataTableDisplay(OpticalRayTracer p) {
 		parent = p;
@@ -67,18 +73,27 @@ final public class DataTableDisplay extends JTable {
 		        Point p = me.getPoint();
 		        int row = table.rowAtPoint(p);
 		        if (me.getClickCount() == 2) {
-		            LineData ld = dataTableModel.getRowData(row);
-		            if(ld != null) {
-		            	parent.lineAnalysis.copyLineToClipboard(ld);
-		            }
+		            parent.lineAnalysis.copyLineToClipboard(
+		            		dataTableModel.getRowData(), dataTableModel.segment(row));
 		        }
 		    }
 		});
+		// a click on a column heading sorts by that column
+		getTableHeader().addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent me) {
+				int column = getTableHeader().columnAtPoint(me.getPoint());
+				if (column >= 0) {
+					dataTableModel.sortBy(convertColumnIndexToModel(column));
+				}
+			}
+		});
 	}
 
 	protected void updateDisplay() {
 
 		dataTableModel.updateDisplay();
+		updateFilterControls();
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
 				parent.tableScrollPane.getHorizontalScrollBar().setValue(
@@ -88,4 +103,33 @@ final public class DataTableDisplay extends JTable {
 		});
 	}
 
+	// the destinations of the current trace, keeping the one
+	// chosen if it's still there
+
+	protected void updateFilterControls() {
+		JComboBox<String> box = parent.tableDestinationComboBox;
+		if (box != null) {
+			Object selected = box.getSelectedItem();
+			suppressFilter = true;
+			box.removeAllItems();
+			box.addItem(anyDestination);
+			for (String s : dataTableModel.destinations()) {
+				box.addItem(s);
+			}
+			box.setSelectedItem(selected);
+			suppressFilter = false;
+			filterChanged();
+		}
+	}
+
+	protected void filterChanged() {
+		if (!suppressFilter && parent.tableEventComboBox != null) {
+			int event = parent.tableEventComboBox.getSelectedIndex() - 1;
+			JComboBox<String> box = parent.tableDestinationComboBox;
+			String destination = (box.getSelectedIndex() > 0) ? (String) box
+					.getSelectedItem() : null;
+			dataTableModel.setFilter(destination, event);
+		}
+	}
+
 }
@@ -20,26 +20,46 @@
 
 package opticalraytracer;
 
-import static java.lang.Math.max;
+import static java.lang.Math.*;
 
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.FontMetrics;
-import java.util.ArrayList;
 
 import javax.swing.JTable;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.JTableHeader;
 
+// The rows are virtual: a cell is formatted from the segment store
+// only when the table asks for it, so the model holds no strings
+// and any number of segments can be shown. Column widths are
+// estimated from a sample of the rows, and one renderer serves
+// all the columns. The rows can be filtered by destination and
+// event and sorted by any column through a SegmentIndex of the
+// store, row n is then segment view[n].
+
 @SuppressWarnings("serial")
 final public class DataTableModel extends AbstractTableModel {
 	OpticalRayTracer parent;
-		ArrayList<ArrayList<String>> array;
+		// the segments the rows show
+		SegmentStore store = null;
+		SegmentIndex index = null;
+		// the segments that pass the filter in the sort
+		// order, null for all of them in trace order
+		int[] view = null;
+		// null for any destination, -1 for any event
+		String destinationFilter = null;
+		int eventFilter = -1;
+		// -1 for trace order
+		int sortColumn = -1;
+		boolean sortDescending = false;
 		String[] header;
 		int[] columnWidths;
 		boolean[] rightJust;
 		JTable table;
 		FontMetrics fm;
+		// the rows measured for the column widths
+		static final int widthSamples = 256;
 
 		public DataTableModel(OpticalRayTracer p, JTable table) {
 			parent = p;
@@ -48,10 +68,11 @@ final public class DataTableModel extends AbstractTableModel {
 			hd.setBackground(new Color(0xc0d0c0));
 			hd.setFont(new Font("Arial",Font.BOLD,12));
 			fm = table.getFontMetrics(table.getFont());
-			array = new ArrayList<>();
 			header = parent.lineAnalysis.header;
 			columnWidths = new int[header.length];
 			rightJust = new boolean[header.length];
+			table.setDefaultRenderer(Object.class, new DataTableCellRenderer(
+					rightJust));
 		}
 		
 		protected boolean getRightJust(int i) {
@@ -68,32 +89,17 @@ final public class DataTableModel extends AbstractTableModel {
 			return " " + s + " ";
 		}
 
-		protected ArrayList<String> makeRow(LineData ld) {
-			ArrayList<String> row = new ArrayList<>();
-			row.add(padString(ld.fromEvent));
-			row.add(padString(ld.toEvent));
-			row.add(padString(ld.from));
-			row.add(padString(ld.to));
-			row.add(padString(ld.type));
-			for (double v : ld.numericValues()) {
-				row.add(padString(parent.formatNum(v)));
-			}
-			
-			return row;
-		}
-
 		protected void updateDisplay() {
 			if (parent.rayTraceComputer != null) {
 				parent.rayTraceComputer.traceRays(null, true);
-				if (parent.rayTraceComputer.lineList != null && parent.rayTraceComputer.lineList.size() > 0) {
-					final int limit = parent.programValues.tableLineLimit;
-					int len = parent.rayTraceComputer.lineList.size();
-					int top = (len > limit) ? limit : len;
-					String s = "Displaying " + top + " of " + len + " lines";
-					if (parent.tableDataLabel != null) {
-						parent.tableDataLabel.setText(s);
-					}
-					array.clear();
+				SegmentStore lines = parent.rayTraceComputer.lineList;
+				if (lines != store) {
+					store = lines;
+					index = (lines == null) ? null : new SegmentIndex(lines,
+							header.length);
+					updateView();
+				}
+				if (lines != null && lines.size() > 0) {
 					int marg = 8;
 					// this only works because monospace font is in use
 					int cw = (int) (fm.stringWidth("X"));
@@ -101,31 +107,28 @@ final public class DataTableModel extends AbstractTableModel {
 					for (int n = 0; n < columnWidths.length; n++) {
 						columnWidths[n] = header[n].length() * cw + marg;
 					}
-					int lines = 0;
-					for (LineData ld : parent.rayTraceComputer.lineList) {
-						ArrayList<String> row = makeRow(ld);
-						for (int n = 0; n < row.size(); n++) {
-							String ss = row.get(n);
+					// rows spread evenly over the table, all
+					// of them if there are few
+					int len = lines.size();
+					int samples = min(len, widthSamples);
+					for (int k = 0; k < samples; k++) {
+						int i = (samples == 1) ? 0 : (int) ((long) k
+								* (len - 1) / (samples - 1));
+						for (int n = 0; n < columnWidths.length; n++) {
+							String ss = padString(parent.lineAnalysis
+									.makeCell(lines, i, n));
 							columnWidths[n] = max(ss.length() * cw + marg,
 									columnWidths[n]);
 						}
-						array.add(row);
-						lines += 1;
-						if (lines > limit) {
-							break;
-						}
 					}
 					int ch = fm.getHeight();
 					for (int n = 0; n < getColumnCount(); n++) {
 						table.getColumnModel().getColumn(n)
 								.setMinWidth(columnWidths[n]);
-						DataTableCellRenderer rr = new DataTableCellRenderer(rightJust);
-						table.getColumnModel().getColumn(n)
-								.setCellRenderer(rr);
 					}
 					// initialize the right-justify array
 					for (int n = 0; n < getColumnCount(); n++) {
-						String ts = array.get(0).get(n);
+						String ts = parent.lineAnalysis.makeCell(lines, 0, n);
 						// if the field contains any uppercase alphas
 						// then left-justify, otherwise right
 						rightJust[n] = !ts.matches(".*[A-Z].*");
@@ -135,23 +138,87 @@ final public class DataTableModel extends AbstractTableModel {
 			}
 		}
 		
-		protected LineData getRowData(int row) {
-			LineData result = null;
-			if(parent.rayTraceComputer.lineList != null && row >= 0 && row <= parent.rayTraceComputer.lineList.size()) {
-			result =  parent.rayTraceComputer.lineList.get(row);
+		// the rows from the indexes, without formatting or retracing
+
+		protected void updateView() {
+			view = (index == null) ? null : index.view(destinationFilter,
+					eventFilter, sortColumn, sortDescending);
+			fireTableDataChanged();
+			int len = (store == null) ? 0 : store.size();
+			String s = "Displaying " + len + " lines";
+			if (getRowCount() < len) {
+				s = "Displaying " + getRowCount() + " of " + len + " lines";
+			}
+			if (parent.tableDataLabel != null) {
+				parent.tableDataLabel.setText(s);
+			}
+		}
+
+		protected void setFilter(String destination, int event) {
+			boolean same = (destination == null) ? destinationFilter == null
+					: destination.equals(destinationFilter);
+			if (!same || event != eventFilter) {
+				destinationFilter = destination;
+				eventFilter = event;
+				updateView();
 			}
-			return result;
+		}
+
+		// each call for the same column steps through ascending,
+		// descending and trace order
+
+		protected void sortBy(int column) {
+			if (column != sortColumn) {
+				sortColumn = column;
+				sortDescending = false;
+			} else if (!sortDescending) {
+				sortDescending = true;
+			} else {
+				sortColumn = -1;
+			}
+			for (int n = 0; n < getColumnCount(); n++) {
+				table.getColumnModel().getColumn(table.convertColumnIndexToView(n))
+						.setHeaderValue(getColumnName(n));
+			}
+			table.getTableHeader().repaint();
+			updateView();
+		}
+
+		// the destinations the rows can be filtered by
+
+		protected String[] destinations() {
+			return (index == null) ? new String[0] : index.destinations();
+		}
+
+		// the segments the rows come from
+
+		protected SegmentStore getRowData() {
+			return store;
+		}
+
+		// the segment of a row, -1 if there's no such row
+
+		protected int segment(int row) {
+			if (row < 0 || row >= getRowCount()) {
+				return -1;
+			}
+			return (view == null) ? row : view[row];
 		}
 
 		@Override
 		public String getColumnName(int column) {
+			if (column == sortColumn) {
+				return header[column] + ((sortDescending) ? " \u25bc" : " \u25b2");
+			}
 			return header[column];
 		}
 
 		@Override
 		public int getRowCount() {
-			// TODO Auto-generated method stub
-			return array.size();
+			if (store == null) {
+				return 0;
+			}
+			return (view == null) ? store.size() : view.length;
 		}
 
 		@Override
@@ -162,8 +229,8 @@ final public class DataTableModel extends AbstractTableModel {
 
 		@Override
 		public Object getValueAt(int rowIndex, int columnIndex) {
-			// TODO Auto-generated method stub
-			return array.get(rowIndex).get(columnIndex);
+			return padString(parent.lineAnalysis.makeCell(store,
+					segment(rowIndex), columnIndex));
 		}
 
 		@Override
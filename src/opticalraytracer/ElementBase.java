@@ -20,16 +20,28 @@
 
 package opticalraytracer;
 
-import java.util.ArrayList;
+// Implementations hold no state of their own -- everything
+// a surface needs is precomputed into its SurfaceGeometry
 
 public interface ElementBase {
-	public void intersections(OpticalComponent oc, boolean leftSide,
-			Vector op1, Vector op2);
-	
-	public double lensProfileXforY(OpticalComponent oc, boolean leftSide,
-			double y, double cx);
-	
-	public double lensProfileDXforY(OpticalComponent oc, boolean leftSide,boolean entering, double y);
-	
-	public ArrayList<Vector> getPoints();
+	// the most candidate points any element writes
+	public static final int MAX_POINTS = 8;
+
+	public SurfaceGeometry createGeometry(OpticalComponent oc, boolean leftSide);
+
+	// writes candidate x,y pairs into points and returns the
+	// number of pairs written, rejected candidates are NaN
+	public int intersections(SurfaceGeometry sg, double x1, double y1,
+			double x2, double y2, double[] points);
+
+	// the batch form of intersections() for the rays rb.lanes[0 .. count),
+	// candidate j of lane k goes to rb.pointX and rb.pointY at
+	// j * rb.capacity + k, returns the number of candidates per lane
+
+	public int intersections(SurfaceGeometry sg, RayBatch rb, int count);
+
+	public double lensProfileXforY(SurfaceGeometry sg, double y, double cx);
+
+	public double lensProfileDXforY(SurfaceGeometry sg, boolean entering,
+			double y);
 }
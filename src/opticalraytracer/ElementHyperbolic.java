@@ -22,21 +22,9 @@ package opticalraytracer;
 
 import static java.lang.Math.*;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-
 final public class ElementHyperbolic implements ElementBase {
-	@SuppressWarnings("unused")
-	private OpticalRayTracer parent;
-	private double zValue = -1;
-	private double mValue = -1;
-	private double bValue = -1;
-	private double lrValue = -1;
-	private double invLrValue = -1;
-	private double srValue = -1;
 	private double epsilon = 1e-8;
 	// private int testCount = 0;
-	private ArrayList<Vector> points;
 	private int pointsSize = 4;
 
 	/*
@@ -51,16 +39,14 @@ final public class ElementHyperbolic implements ElementBase {
 	 * long-sought goal.
 	 */
 
-	public ElementHyperbolic(OpticalRayTracer p) {
-		parent = p;
-		points = new ArrayList<Vector>();
-		for (int i = 0; i < pointsSize; i++) {
-			points.add(new Vector());
-		}
-	}
-
-	public ArrayList<Vector> getPoints() {
-		return points;
+	public SurfaceGeometry createGeometry(OpticalComponent oc,
+			boolean leftSide) {
+		double z = oc.zValue(leftSide);
+		double m = pm(z, 1);
+		double b = pb(1, z, m, 0, 0);
+		// parent.p("hyperbolic createGeometry: z: " + z
+		// + ", m = " + m + ", b = " + b);
+		return new SurfaceGeometry(this, oc, leftSide, m, b);
 	}
 
 	/*
@@ -83,36 +69,36 @@ final public class ElementHyperbolic implements ElementBase {
 	// From Python script:
 	// /netbackup/data/java2/OpticalRayTracer_eclipse/python_equation_generator/new_hyperbolic_equation_solutions.py
 
-	private double pa0(double z, double s, double m, double x_1, double y_1) {
-		return (-m * m * s * s * y_1 + s * x_1 - sqrt(s
+	// the discriminant root shared by pa0 - pa3, computed
+	// once for each x_1 rather than once for each solution
+
+	private double pr(double z, double s, double m, double x_1, double y_1) {
+		return sqrt(s
 				* s
 				* (m * m * s * s * x_1 * x_1 - m * m * s * s * z - 2 * m * m
-						* s * x_1 * y_1 + m * m * y_1 * y_1 + z)))
+						* s * x_1 * y_1 + m * m * y_1 * y_1 + z));
+	}
+
+	private double pa0(double s, double m, double x_1, double y_1,
+			double root) {
+		return (-m * m * s * s * y_1 + s * x_1 - root)
 				/ (s * (m * m * s * s - 1));
 	}
 
-	private double pa1(double z, double s, double m, double x_1, double y_1) {
-		return (-m * m * s * s * y_1 + s * x_1 - sqrt(s
-				* s
-				* (m * m * s * s * x_1 * x_1 - m * m * s * s * z - 2 * m * m
-						* s * x_1 * y_1 + m * m * y_1 * y_1 + z)))
-				/ (m * m * s * s - 1);
+	private double pa1(double s, double m, double x_1, double y_1,
+			double root) {
+		return (-m * m * s * s * y_1 + s * x_1 - root) / (m * m * s * s - 1);
 	}
 
-	private double pa2(double z, double s, double m, double x_1, double y_1) {
-		return (-m * m * s * s * y_1 + s * x_1 + sqrt(s
-				* s
-				* (m * m * s * s * x_1 * x_1 - m * m * s * s * z - 2 * m * m
-						* s * x_1 * y_1 + m * m * y_1 * y_1 + z)))
+	private double pa2(double s, double m, double x_1, double y_1,
+			double root) {
+		return (-m * m * s * s * y_1 + s * x_1 + root)
 				/ (s * (m * m * s * s - 1));
 	}
 
-	private double pa3(double z, double s, double m, double x_1, double y_1) {
-		return (-m * m * s * s * y_1 + s * x_1 + sqrt(s
-				* s
-				* (m * m * s * s * x_1 * x_1 - m * m * s * s * z - 2 * m * m
-						* s * x_1 * y_1 + m * m * y_1 * y_1 + z)))
-				/ (m * m * s * s - 1);
+	private double pa3(double s, double m, double x_1, double y_1,
+			double root) {
+		return (-m * m * s * s * y_1 + s * x_1 + root) / (m * m * s * s - 1);
 	}
 
 	private double pb(double y, double z, double m, double x_1, double y_1) {
@@ -142,28 +128,25 @@ final public class ElementHyperbolic implements ElementBase {
 	 * ------------------------------------------------------
 	 */
 
-	public void intersections(OpticalComponent oc, boolean leftSide,
-			Vector op1, Vector op2) {
+	public int intersections(SurfaceGeometry sg, double x1, double y1,
+			double x2, double y2, double[] points) {
 
-		for (Vector p : points) {
-			p.assign(Vector.invalidState());
-		}
-
-		double signedScale = oc.signedScale(leftSide);
-		double lensRadius = oc.lensRadius();
-		double angleRadians = oc.angleRadians();
+		double signedScale = sg.signedScale;
+		double lensRadius = sg.lensRadius;
+		double angleRadians = sg.angleRadians;
 
 		Vector thr, tc, p1, p2;
 		double s;
+		// the cached rotation, recomputed only by the retry below
+		double ca = sg.cosAngle, sa = sg.sinAngle;
+		double cn = sg.cosNegAngle, sn = sg.sinNegAngle;
+		tc = sg.center;
 
 		// a somewhat hacky way to avoid the on-axis zero problem
 		while (true) {
-			thr = new Vector(-oc.signedThickness(leftSide), 0)
-					.rotate(angleRadians);
-			tc = new Vector(oc.xPos(), oc.yPos()).translate(thr);
-			p1 = new Vector(op1).translateSub(tc).rotate(-angleRadians)
+			p1 = new Vector(x1, y1).translateSub(tc).rotate(cn, sn)
 					.scale(1 / signedScale, 1 / lensRadius);
-			p2 = new Vector(op2).translateSub(tc).rotate(-angleRadians)
+			p2 = new Vector(x2, y2).translateSub(tc).rotate(cn, sn)
 					.scale(1 / signedScale, 1 / lensRadius);
 
 			// the all-important line slope value
@@ -174,78 +157,189 @@ final public class ElementHyperbolic implements ElementBase {
 				break;
 			}
 			angleRadians += epsilon;
+			ca = cos(angleRadians);
+			sa = sin(angleRadians);
+			cn = cos(-angleRadians);
+			sn = sin(-angleRadians);
+			thr = new Vector(-sg.signedThickness, 0).rotate(ca, sa);
+			tc = new Vector(sg.xPos, sg.yPos).translate(thr);
 		}
 
-		updateFactors(oc, leftSide);
-
-		Vector pt;
-		int len_d2 = points.size() / 2;
-		int n = 0;
-		Iterator<Vector> ic = points.iterator();
+		double z = sg.zValue;
+		double m = sg.m;
+		int len_d2 = pointsSize / 2;
 		// must compute four possible intersections
 		// each with either sign of the bias variable
 		// this is the only way to allow multiple reflections
 		// on the surface of a reflector
-		double sb = (s < 0) ? -bValue : bValue;
+		double sb = (s < 0) ? -sg.b : sg.b;
 		double sbb;
 
-		while (ic.hasNext()) {
+		// the two x_1 values, p1.x - sb and p1.x + sb,
+		// are all the roots the four solutions need
+		double rm = pr(z, s, m, p1.x - sb, p1.y);
+		double rp = pr(z, s, m, p1.x + sb, p1.y);
+		for (int n = 0; n < pointsSize; n += 2) {
 			sbb = (n >= len_d2) ? -sb : sb;
-			pt = ic.next();
-			pt.x = pa0(zValue, s, mValue, p1.x - sbb, p1.y) + p1.x;
-			pt.y = pa1(zValue, s, mValue, p1.x - sbb, p1.y) + p1.y;
-			pt = ic.next();
-			pt.x = pa2(zValue, s, mValue, p1.x + sbb, p1.y) + p1.x;
-			pt.y = pa3(zValue, s, mValue, p1.x + sbb, p1.y) + p1.y;
-			n += 2;
+			double ra = (n >= len_d2) ? rp : rm;
+			double rb = (n >= len_d2) ? rm : rp;
+			points[n * 2] = pa0(s, m, p1.x - sbb, p1.y, ra) + p1.x;
+			points[n * 2 + 1] = pa1(s, m, p1.x - sbb, p1.y, ra) + p1.y;
+			points[n * 2 + 2] = pa2(s, m, p1.x + sbb, p1.y, rb) + p1.x;
+			points[n * 2 + 3] = pa3(s, m, p1.x + sbb, p1.y, rb) + p1.y;
 		}
 
 		double count = 0;
 		double minx = 1e6, maxx = -1e6;
 		// filter out spurious surface detections
-		for (Vector p : points) {
-			if (leftSide) {
-				p.x = (p.x < 0) ? Double.NaN : p.x;
+		for (int n = 0; n < pointsSize; n++) {
+			double x = points[n * 2];
+			if (sg.leftSide) {
+				x = (x < 0) ? Double.NaN : x;
 			} else {
-				p.x = (p.x > 0) ? Double.NaN : p.x;
+				x = (x > 0) ? Double.NaN : x;
 			}
-			if (!Double.isNaN(p.x)) {
-				minx = min(minx, p.x);
-				maxx = max(maxx, p.x);
+			if (!Double.isNaN(x)) {
+				minx = min(minx, x);
+				maxx = max(maxx, x);
 				count += 1;
 			}
+			points[n * 2] = x;
 		}
 
-		if (!oc.isReflector() && count > 1) {
+		if (!sg.reflector && count > 1) {
 
-			for (Vector p : points) {
-				p.x = (p.x < 0 && p.x == minx) ? Double.NaN : p.x;
-				p.x = (p.x > 0 && p.x == maxx) ? Double.NaN : p.x;
+			for (int n = 0; n < pointsSize; n++) {
+				double x = points[n * 2];
+				x = (x < 0 && x == minx) ? Double.NaN : x;
+				x = (x > 0 && x == maxx) ? Double.NaN : x;
+				points[n * 2] = x;
 			}
 		}
 
 		// parent.p("intersections:");
-		for (Vector p : points) {
+		for (int n = 0; n < pointsSize; n++) {
 			// parent.p("" + p);
-			p.assign(p.scale(signedScale, lensRadius).rotate(angleRadians)
-					.translate(tc));
+			Vector p = new Vector(points[n * 2], points[n * 2 + 1])
+					.scale(signedScale, lensRadius).rotate(ca, sa)
+					.translate(tc);
+			points[n * 2] = p.x;
+			points[n * 2 + 1] = p.y;
 		}
-
+		return pointsSize;
 	}
 
-	// hyperbolic curve profile
-	public double lensProfileXforY(OpticalComponent oc, boolean leftSide,
-			double y, double cx) {
-		updateFactors(oc, leftSide);
-		return lensProfileXforYCore(oc, leftSide, y, cx);
+	// The batch form of intersections(), split into loops over lane
+	// columns as ElementSpherical does. A lane whose slope is too
+	// small for the closed form is solved by the scalar routine with
+	// its on-axis retry.
+
+	public int intersections(SurfaceGeometry sg, RayBatch rb, int count) {
+		double ca = sg.cosAngle, sa = sg.sinAngle;
+		double cn = sg.cosNegAngle, sn = sg.sinNegAngle;
+		double tcx = sg.center.x;
+		double tcy = sg.center.y;
+		double signedScale = sg.signedScale;
+		double lensRadius = sg.lensRadius;
+		double xs = 1 / signedScale, ys = 1 / lensRadius;
+		double z = sg.zValue;
+		double m = sg.m;
+		double b = sg.b;
+		boolean leftSide = sg.leftSide;
+		int cap = rb.capacity;
+		int[] lanes = rb.lanes;
+		double[] ax = rb.ax, ay = rb.ay, bx = rb.bx, by = rb.by;
+		double[] u = rb.u, v = rb.v, w = rb.w, rm = rb.rm, rp = rb.rp;
+		double[] px = rb.pointX, py = rb.pointY;
+		// lens frame: u = p1.x, v = p1.y, w = slope
+		for (int k = 0; k < count; k++) {
+			int i = lanes[k];
+			double dx1 = ax[i] - tcx, dy1 = ay[i] - tcy;
+			double dx2 = bx[i] - tcx, dy2 = by[i] - tcy;
+			double x1 = (dx1 * cn - dy1 * sn) * xs;
+			double y1 = (dy1 * cn + dx1 * sn) * ys;
+			double x2 = (dx2 * cn - dy2 * sn) * xs;
+			double y2 = (dy2 * cn + dx2 * sn) * ys;
+			u[k] = x1;
+			v[k] = y1;
+			w[k] = (y2 - y1) / (x2 - x1);
+		}
+		// the two roots of each lane, the bias takes the
+		// sign of the slope
+		for (int k = 0; k < count; k++) {
+			double sb = (w[k] < 0) ? -b : b;
+			rm[k] = pr(z, w[k], m, u[k] - sb, v[k]);
+			rp[k] = pr(z, w[k], m, u[k] + sb, v[k]);
+		}
+		// the four solutions of each lane, rows as in intersections()
+		for (int k = 0; k < count; k++) {
+			double s = w[k], x = u[k], y = v[k];
+			double sb = (s < 0) ? -b : b;
+			px[k] = pa0(s, m, x - sb, y, rm[k]) + x;
+			py[k] = pa1(s, m, x - sb, y, rm[k]) + y;
+			px[cap + k] = pa2(s, m, x + sb, y, rp[k]) + x;
+			py[cap + k] = pa3(s, m, x + sb, y, rp[k]) + y;
+			px[2 * cap + k] = pa0(s, m, x + sb, y, rp[k]) + x;
+			py[2 * cap + k] = pa1(s, m, x + sb, y, rp[k]) + y;
+			px[3 * cap + k] = pa2(s, m, x - sb, y, rm[k]) + x;
+			py[3 * cap + k] = pa3(s, m, x - sb, y, rm[k]) + y;
+		}
+		// filter out spurious surface detections, the count and
+		// the x range of each lane's survivors in rm, u and v
+		for (int k = 0; k < count; k++) {
+			rm[k] = 0;
+			u[k] = 1e6;
+			v[k] = -1e6;
+		}
+		for (int j = 0; j < pointsSize * cap; j += cap) {
+			for (int k = 0; k < count; k++) {
+				double x = px[j + k];
+				if (leftSide) {
+					x = (x < 0) ? Double.NaN : x;
+				} else {
+					x = (x > 0) ? Double.NaN : x;
+				}
+				if (!Double.isNaN(x)) {
+					u[k] = min(u[k], x);
+					v[k] = max(v[k], x);
+					rm[k] += 1;
+				}
+				px[j + k] = x;
+			}
+		}
+		if (!sg.reflector) {
+			for (int j = 0; j < pointsSize * cap; j += cap) {
+				for (int k = 0; k < count; k++) {
+					if (rm[k] > 1) {
+						double x = px[j + k];
+						x = (x < 0 && x == u[k]) ? Double.NaN : x;
+						x = (x > 0 && x == v[k]) ? Double.NaN : x;
+						px[j + k] = x;
+					}
+				}
+			}
+		}
+		// restore original scale, rotation and position
+		for (int j = 0; j < pointsSize * cap; j += cap) {
+			for (int k = j; k < j + count; k++) {
+				double x = px[k] * signedScale, y = py[k] * lensRadius;
+				px[k] = x * ca - y * sa + tcx;
+				py[k] = y * ca + x * sa + tcy;
+			}
+		}
+		for (int k = 0; k < count; k++) {
+			if (!(abs(w[k]) >= epsilon)) {
+				rb.solveLane(sg, k);
+			}
+		}
+		return pointsSize;
 	}
 
 	// hyperbolic curve profile
-	public double lensProfileXforYCore(OpticalComponent oc, boolean leftSide,
-			double y, double cx) {
-		double x = -pb(y / oc.lensRadius(), zValue, mValue, cx + bValue, 0)
-				* oc.scale(leftSide) * oc.radiusSign(leftSide) - oc.thickness();
-		if (leftSide) {
+	public double lensProfileXforY(SurfaceGeometry sg, double y, double cx) {
+		double x = -pb(y / sg.lensRadius, sg.zValue, sg.m, cx + sg.b, 0)
+				* sg.scale * sg.radiusSign - sg.thickness;
+		if (sg.leftSide) {
 			x = -x;
 		}
 		// testCount += 1;
@@ -257,14 +351,13 @@ final public class ElementHyperbolic implements ElementBase {
 	}
 
 	// 1st derivative of curve profile
-	public double lensProfileDXforY(OpticalComponent oc, boolean leftSide,
-			boolean entering, double y) {
-
-		updateFactors(oc, leftSide);
+	public double lensProfileDXforY(SurfaceGeometry sg, boolean entering,
+			double y) {
+		double invLr = 1 / sg.lensRadius;
 		// note the square factor divisor
-		double dx = pd(y * invLrValue, zValue, mValue, 0) * oc.scale(leftSide)
-				* oc.radiusSign(leftSide) * invLrValue;
-		if (leftSide) {
+		double dx = pd(y * invLr, sg.zValue, sg.m, 0) * sg.scale
+				* sg.radiusSign * invLr;
+		if (sg.leftSide) {
 			dx = -dx;
 		}
 		// parent.p("hyperbolic DX: left: " + leftSide + ", needRotation: "
@@ -272,23 +365,4 @@ final public class ElementHyperbolic implements ElementBase {
 		// + v);
 		return -dx;
 	}
-
-	private void updateFactors(OpticalComponent oc, boolean leftSide) {
-		double newZ = oc.zValue(leftSide);
-		double newSR = oc.sphereRadius(leftSide);
-		double newLR = oc.lensRadius();
-		if (zValue != newZ || newLR != lrValue || newSR != srValue) {
-			mValue = pm(newZ, 1);
-			bValue = pb(1, newZ, mValue, 0, 0);
-			// testCount += 1;
-			// if(testCount % 10 == 0) {
-			// parent.p("hyperbolic updateFactors recalc: z: " + newZ
-			// + ", m = " + mValue + ", b = " + bValue);
-			// }
-			zValue = newZ;
-			lrValue = newLR;
-			invLrValue = 1 / newLR;
-			srValue = newSR;
-		}
-	}
 }
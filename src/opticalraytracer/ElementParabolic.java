@@ -21,37 +21,32 @@
 package opticalraytracer;
 
 import static java.lang.Math.abs;
+import static java.lang.Math.cos;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
+import static java.lang.Math.sin;
 import static java.lang.Math.sqrt;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-
 final public class ElementParabolic implements ElementBase {
-	OpticalRayTracer parent;
-	private double srValue = -1;
-	private double lrValue = -1;
-	private double mValue = -1;
-	private double bValue = -1;
 	// private double epsilon = 1e-3;
-	double leftMax, rightMax;
-	private ArrayList<Vector> points;
 	private int pointsSize = 8;
 	private double epsilon = 1e-6;
 
 	// private int testCount = 0;
 
-	public ElementParabolic(OpticalRayTracer p) {
-		parent = p;
-		points = new ArrayList<Vector>();
-		for (int i = 0; i < pointsSize; i++) {
-			points.add(new Vector());
-		}
-	}
-
-	public ArrayList<Vector> getPoints() {
-		return points;
+	public SurfaceGeometry createGeometry(OpticalComponent oc,
+			boolean leftSide) {
+		double lr = oc.lensRadius();
+		double m = 1 / (lr * lr);
+		double b = pb(lr, 0, 0);
+		SurfaceGeometry sg = new SurfaceGeometry(this, oc, leftSide, m, b);
+		// the largest valid x excursion of this surface
+		double x0 = abs(lensProfileXforY(sg, 0, 0));
+		double x1 = abs(lensProfileXforY(sg, lr, 0));
+		// parent.pr("parabolic createGeometry: sr: " + sg.sphereRadius +
+		// ", lr: " + lr + ", m: " + m + ", b = " + b + ", maxx: "
+		// + max(x0, x1));
+		return new SurfaceGeometry(sg, max(x0, x1));
 	}
 
 	/*
@@ -72,44 +67,47 @@ final public class ElementParabolic implements ElementBase {
 	// From Python script:
 	// /netbackup/data/java2/OpticalRayTracer_eclipse/python_equation_generator/new_parabolic_equation_solutions.py
 
-	private double pa0(double s, double x_1, double y_1) {
-		return (-2 * s * y_1 - sqrt(4 * (s * s) * x_1 - 4 * s * y_1 + 1) + 1)
-				/ (2 * (s * s));
+	// the discriminant roots shared by pa0 - pa3 and pa4 - pa7,
+	// computed once for each x_1 rather than once for each solution
+
+	private double pra(double s, double x_1, double y_1) {
+		return sqrt(4 * (s * s) * x_1 - 4 * s * y_1 + 1);
+	}
+
+	private double prb(double s, double x_1, double y_1) {
+		return sqrt(-4 * (s * s) * x_1 + 4 * s * y_1 + 1);
+	}
+
+	private double pa0(double s, double y_1, double root) {
+		return (-2 * s * y_1 - root + 1) / (2 * (s * s));
 	}
 
-	private double pa1(double s, double x_1, double y_1) {
-		return (-2 * s * y_1 - sqrt(4 * (s * s) * x_1 - 4 * s * y_1 + 1) + 1)
-				/ (2 * s);
+	private double pa1(double s, double y_1, double root) {
+		return (-2 * s * y_1 - root + 1) / (2 * s);
 	}
 
-	private double pa2(double s, double x_1, double y_1) {
-		return (-2 * s * y_1 + sqrt(4 * (s * s) * x_1 - 4 * s * y_1 + 1) + 1)
-				/ (2 * (s * s));
+	private double pa2(double s, double y_1, double root) {
+		return (-2 * s * y_1 + root + 1) / (2 * (s * s));
 	}
 
-	private double pa3(double s, double x_1, double y_1) {
-		return (-2 * s * y_1 + sqrt(4 * (s * s) * x_1 - 4 * s * y_1 + 1) + 1)
-				/ (2 * s);
+	private double pa3(double s, double y_1, double root) {
+		return (-2 * s * y_1 + root + 1) / (2 * s);
 	}
 
-	private double pa4(double s, double x_1, double y_1) {
-		return -(2 * s * y_1 + sqrt(-4 * (s * s) * x_1 + 4 * s * y_1 + 1) + 1)
-				/ (2 * (s * s));
+	private double pa4(double s, double y_1, double root) {
+		return -(2 * s * y_1 + root + 1) / (2 * (s * s));
 	}
 
-	private double pa5(double s, double x_1, double y_1) {
-		return -(2 * s * y_1 + sqrt(-4 * (s * s) * x_1 + 4 * s * y_1 + 1) + 1)
-				/ (2 * s);
+	private double pa5(double s, double y_1, double root) {
+		return -(2 * s * y_1 + root + 1) / (2 * s);
 	}
 
-	private double pa6(double s, double x_1, double y_1) {
-		return (-2 * s * y_1 + sqrt(-4 * (s * s) * x_1 + 4 * s * y_1 + 1) - 1)
-				/ (2 * (s * s));
+	private double pa6(double s, double y_1, double root) {
+		return (-2 * s * y_1 + root - 1) / (2 * (s * s));
 	}
 
-	private double pa7(double s, double x_1, double y_1) {
-		return (-2 * s * y_1 + sqrt(-4 * (s * s) * x_1 + 4 * s * y_1 + 1) - 1)
-				/ (2 * s);
+	private double pa7(double s, double y_1, double root) {
+		return (-2 * s * y_1 + root - 1) / (2 * s);
 	}
 
 	private double pb(double y, double x_1, double y_1) {
@@ -129,28 +127,25 @@ final public class ElementParabolic implements ElementBase {
 	 * ------------------------------------------------------
 	 */
 
-	public void intersections(OpticalComponent oc, boolean leftSide,
-			Vector op1, Vector op2) {
+	public int intersections(SurfaceGeometry sg, double x1, double y1,
+			double x2, double y2, double[] points) {
 
-		for (Vector p : points) {
-			p.assign(Vector.invalidState());
-		}
-
-		double signedScale = oc.signedScale(leftSide);
-		double lensRadius = oc.lensRadius();
-		double angleRadians = oc.angleRadians();
+		double signedScale = sg.signedScale;
+		double lensRadius = sg.lensRadius;
+		double angleRadians = sg.angleRadians;
 
 		Vector thr, tc, p1, p2;
 		double s;
+		// the cached rotation, recomputed only by the retry below
+		double ca = sg.cosAngle, sa = sg.sinAngle;
+		double cn = sg.cosNegAngle, sn = sg.sinNegAngle;
+		tc = sg.center;
 
 		// a somewhat hacky way to avoid the on-axis zero problem
 		while (true) {
-			thr = new Vector(-oc.signedThickness(leftSide), 0)
-					.rotate(angleRadians);
-			tc = new Vector(oc.xPos(), oc.yPos()).translate(thr);
-			p1 = new Vector(op1).translateSub(tc).rotate(-angleRadians)
+			p1 = new Vector(x1, y1).translateSub(tc).rotate(cn, sn)
 					.scale(1 / signedScale, 1 / lensRadius);
-			p2 = new Vector(op2).translateSub(tc).rotate(-angleRadians)
+			p2 = new Vector(x2, y2).translateSub(tc).rotate(cn, sn)
 					.scale(1 / signedScale, 1 / lensRadius);
 
 			// the all-important line slope value
@@ -161,98 +156,209 @@ final public class ElementParabolic implements ElementBase {
 				break;
 			}
 			angleRadians += epsilon;
+			ca = cos(angleRadians);
+			sa = sin(angleRadians);
+			cn = cos(-angleRadians);
+			sn = sin(-angleRadians);
+			thr = new Vector(-sg.signedThickness, 0).rotate(ca, sa);
+			tc = new Vector(sg.xPos, sg.yPos).translate(thr);
 		}
 
-		updateFactors(oc, leftSide);
-
-		Vector pt;
-		int n = 0;
-		int len_d2 = points.size() / 2;
-		Iterator<Vector> ic = points.iterator();
+		int len_d2 = pointsSize / 2;
 		// must compute four possible intersections
 		// each with either sign of the bias variable
 		// this is the only way to allow multiple reflections
 		// on the surface of a reflector
 		// parent.pr("values: " + p1 + "," + p2 + ", s value:" + s);
-		// double radiusSign = oc.radiusSign(leftSide);
-		double sb = -1;
-		double sbb;
-
-		while (ic.hasNext()) {
-			sbb = (n < len_d2) ? -sb : sb;
-			pt = ic.next();
-			pt.x = pa0(s, p1.x - sbb, p1.y) + p1.x;
-			pt.y = pa1(s, p1.x - sbb, p1.y) + p1.y;
-			pt = ic.next();
-			pt.x = pa2(s, p1.x + sbb, p1.y) + p1.x;
-			pt.y = pa3(s, p1.x + sbb, p1.y) + p1.y;
-			pt = ic.next();
-			pt.x = pa4(s, p1.x - sbb, p1.y) + p1.x;
-			pt.y = pa5(s, p1.x - sbb, p1.y) + p1.y;
-			pt = ic.next();
-			pt.x = pa6(s, p1.x + sbb, p1.y) + p1.x;
-			pt.y = pa7(s, p1.x + sbb, p1.y) + p1.y;
-			n += 4;
+		// the two x_1 values, p1.x - 1 and p1.x + 1,
+		// give all four roots the eight solutions need
+		double ram = pra(s, p1.x - 1, p1.y);
+		double rap = pra(s, p1.x + 1, p1.y);
+		double rbm = prb(s, p1.x - 1, p1.y);
+		double rbp = prb(s, p1.x + 1, p1.y);
+		for (int n = 0; n < pointsSize; n += 4) {
+			boolean first = n < len_d2;
+			points[n * 2] = pa0(s, p1.y, first ? ram : rap) + p1.x;
+			points[n * 2 + 1] = pa1(s, p1.y, first ? ram : rap) + p1.y;
+			points[n * 2 + 2] = pa2(s, p1.y, first ? rap : ram) + p1.x;
+			points[n * 2 + 3] = pa3(s, p1.y, first ? rap : ram) + p1.y;
+			points[n * 2 + 4] = pa4(s, p1.y, first ? rbm : rbp) + p1.x;
+			points[n * 2 + 5] = pa5(s, p1.y, first ? rbm : rbp) + p1.y;
+			points[n * 2 + 6] = pa6(s, p1.y, first ? rbp : rbm) + p1.x;
+			points[n * 2 + 7] = pa7(s, p1.y, first ? rbp : rbm) + p1.y;
 		}
 
-		double slmaxx = leftMax * 2 / abs(signedScale);
-		double srmaxx = rightMax * 2 / abs(signedScale);
+		double smaxx = sg.maxX * 2 / abs(signedScale);
 
 		double count = 0;
 		double minx = 1e6, maxx = -1e6;
 		// filter out spurious surface detections
-		for (Vector p : points) {
-
-			if (leftSide) {
-				p.x = (p.x < 0) ? Double.NaN : p.x;
-				p.x = (p.x > slmaxx) ? Double.NaN : p.x;
+		for (int n = 0; n < pointsSize; n++) {
+			double x = points[n * 2];
+			if (sg.leftSide) {
+				x = (x < 0) ? Double.NaN : x;
+				x = (x > smaxx) ? Double.NaN : x;
 			} else {
-				p.x = (p.x > 0) ? Double.NaN : p.x;
-				p.x = (p.x < -srmaxx) ? Double.NaN : p.x;
+				x = (x > 0) ? Double.NaN : x;
+				x = (x < -smaxx) ? Double.NaN : x;
 			}
-			if (!Double.isNaN(p.x)) {
-				minx = min(minx, p.x);
-				maxx = max(maxx, p.x);
+			if (!Double.isNaN(x)) {
+				minx = min(minx, x);
+				maxx = max(maxx, x);
 				count += 1;
 			}
+			points[n * 2] = x;
 		}
 
-		if (!oc.isReflector() && count > 1) {
+		if (!sg.reflector && count > 1) {
 
 			// if count > 1, the maxima
 			// or minima are invalid
-			for (Vector p : points) {
-				if (p.x < 0) {
-					p.x = (p.x == minx) ? Double.NaN : p.x;
+			for (int n = 0; n < pointsSize; n++) {
+				double x = points[n * 2];
+				if (x < 0) {
+					points[n * 2] = (x == minx) ? Double.NaN : x;
 				} else {
-					p.x = (p.x == maxx) ? Double.NaN : p.x;
+					points[n * 2] = (x == maxx) ? Double.NaN : x;
 				}
 			}
 		}
 
 		// parent.p("intersections for left: " + leftSide);
-		for (Vector p : points) {
-			p.assign(p.scale(signedScale, lensRadius).rotate(angleRadians)
-					.translate(tc));
-			// p.scale(signedScale, lensRadius);
-			// p.rotate(oc.angleRadians);
-			// p.translate(tc);
-			// parent.p("" + p);
+		for (int n = 0; n < pointsSize; n++) {
+			Vector p = new Vector(points[n * 2], points[n * 2 + 1])
+					.scale(signedScale, lensRadius).rotate(ca, sa)
+					.translate(tc);
+			points[n * 2] = p.x;
+			points[n * 2 + 1] = p.y;
 		}
+		return pointsSize;
 	}
 
-	public double lensProfileXforY(OpticalComponent oc, boolean leftSide,
-			double y, double cx) {
-		updateFactors(oc, leftSide);
-		return lensProfileXforYCore(oc, leftSide, y, cx);
-
+	// The batch form of intersections(), split into loops over lane
+	// columns as ElementSpherical does. A lane whose slope is too
+	// small for the closed form is solved by the scalar routine with
+	// its on-axis retry.
+
+	public int intersections(SurfaceGeometry sg, RayBatch rb, int count) {
+		double ca = sg.cosAngle, sa = sg.sinAngle;
+		double cn = sg.cosNegAngle, sn = sg.sinNegAngle;
+		double tcx = sg.center.x;
+		double tcy = sg.center.y;
+		double signedScale = sg.signedScale;
+		double lensRadius = sg.lensRadius;
+		double xs = 1 / signedScale, ys = 1 / lensRadius;
+		int cap = rb.capacity;
+		int[] lanes = rb.lanes;
+		double[] ax = rb.ax, ay = rb.ay, bx = rb.bx, by = rb.by;
+		double[] u = rb.u, v = rb.v, w = rb.w, rm = rb.rm, rp = rb.rp;
+		double[] px = rb.pointX, py = rb.pointY;
+		// lens frame: u = p1.x, v = p1.y, w = slope
+		for (int k = 0; k < count; k++) {
+			int i = lanes[k];
+			double dx1 = ax[i] - tcx, dy1 = ay[i] - tcy;
+			double dx2 = bx[i] - tcx, dy2 = by[i] - tcy;
+			double x1 = (dx1 * cn - dy1 * sn) * xs;
+			double y1 = (dy1 * cn + dx1 * sn) * ys;
+			double x2 = (dx2 * cn - dy2 * sn) * xs;
+			double y2 = (dy2 * cn + dx2 * sn) * ys;
+			u[k] = x1;
+			v[k] = y1;
+			w[k] = (y2 - y1) / (x2 - x1);
+		}
+		// the eight solutions of each lane, rows as in
+		// intersections(), the pra roots then the prb roots
+		for (int k = 0; k < count; k++) {
+			rm[k] = pra(w[k], u[k] - 1, v[k]);
+			rp[k] = pra(w[k], u[k] + 1, v[k]);
+		}
+		for (int k = 0; k < count; k++) {
+			double s = w[k], x = u[k], y = v[k];
+			px[k] = pa0(s, y, rm[k]) + x;
+			py[k] = pa1(s, y, rm[k]) + y;
+			px[cap + k] = pa2(s, y, rp[k]) + x;
+			py[cap + k] = pa3(s, y, rp[k]) + y;
+			px[4 * cap + k] = pa0(s, y, rp[k]) + x;
+			py[4 * cap + k] = pa1(s, y, rp[k]) + y;
+			px[5 * cap + k] = pa2(s, y, rm[k]) + x;
+			py[5 * cap + k] = pa3(s, y, rm[k]) + y;
+		}
+		for (int k = 0; k < count; k++) {
+			rm[k] = prb(w[k], u[k] - 1, v[k]);
+			rp[k] = prb(w[k], u[k] + 1, v[k]);
+		}
+		for (int k = 0; k < count; k++) {
+			double s = w[k], x = u[k], y = v[k];
+			px[2 * cap + k] = pa4(s, y, rm[k]) + x;
+			py[2 * cap + k] = pa5(s, y, rm[k]) + y;
+			px[3 * cap + k] = pa6(s, y, rp[k]) + x;
+			py[3 * cap + k] = pa7(s, y, rp[k]) + y;
+			px[6 * cap + k] = pa4(s, y, rp[k]) + x;
+			py[6 * cap + k] = pa5(s, y, rp[k]) + y;
+			px[7 * cap + k] = pa6(s, y, rm[k]) + x;
+			py[7 * cap + k] = pa7(s, y, rm[k]) + y;
+		}
+		// filter out spurious surface detections, the count and
+		// the x range of each lane's survivors in rm, u and v
+		double smaxx = sg.maxX * 2 / abs(signedScale);
+		for (int k = 0; k < count; k++) {
+			rm[k] = 0;
+			u[k] = 1e6;
+			v[k] = -1e6;
+		}
+		for (int j = 0; j < pointsSize * cap; j += cap) {
+			for (int k = 0; k < count; k++) {
+				double x = px[j + k];
+				if (sg.leftSide) {
+					x = (x < 0) ? Double.NaN : x;
+					x = (x > smaxx) ? Double.NaN : x;
+				} else {
+					x = (x > 0) ? Double.NaN : x;
+					x = (x < -smaxx) ? Double.NaN : x;
+				}
+				if (!Double.isNaN(x)) {
+					u[k] = min(u[k], x);
+					v[k] = max(v[k], x);
+					rm[k] += 1;
+				}
+				px[j + k] = x;
+			}
+		}
+		if (!sg.reflector) {
+			// where count > 1, the maxima or minima are invalid
+			for (int j = 0; j < pointsSize * cap; j += cap) {
+				for (int k = 0; k < count; k++) {
+					double x = px[j + k];
+					if (rm[k] > 1) {
+						if (x < 0) {
+							px[j + k] = (x == u[k]) ? Double.NaN : x;
+						} else {
+							px[j + k] = (x == v[k]) ? Double.NaN : x;
+						}
+					}
+				}
+			}
+		}
+		// restore original scale, rotation and position
+		for (int j = 0; j < pointsSize * cap; j += cap) {
+			for (int k = j; k < j + count; k++) {
+				double x = px[k] * signedScale, y = py[k] * lensRadius;
+				px[k] = x * ca - y * sa + tcx;
+				py[k] = y * ca + x * sa + tcy;
+			}
+		}
+		for (int k = 0; k < count; k++) {
+			if (!(abs(w[k]) >= epsilon)) {
+				rb.solveLane(sg, k);
+			}
+		}
+		return pointsSize;
 	}
 
-	private double lensProfileXforYCore(OpticalComponent oc, boolean leftSide,
-			double y, double cx) {
-		double x = pb(y, cx + bValue, 0) * mValue * oc.scale(leftSide)
-				* oc.radiusSign(leftSide) - oc.thickness();
-		if (leftSide) {
+	public double lensProfileXforY(SurfaceGeometry sg, double y, double cx) {
+		double x = pb(y, cx + sg.b, 0) * sg.m * sg.scale * sg.radiusSign
+				- sg.thickness;
+		if (sg.leftSide) {
 			x = -x;
 		}
 		// testCount += 1;
@@ -264,13 +370,11 @@ final public class ElementParabolic implements ElementBase {
 	}
 
 	// 1st derivative
-	public double lensProfileDXforY(OpticalComponent oc, boolean leftSide,
-			boolean entering, double y) {
+	public double lensProfileDXforY(SurfaceGeometry sg, boolean entering,
+			double y) {
 		// parent.p("parabolic DX left: " + leftSide);
-		updateFactors(oc, leftSide);
-		double dx = pd(y, 0) * mValue * oc.scale(leftSide)
-				* oc.radiusSign(leftSide);
-		if (leftSide) {
+		double dx = pd(y, 0) * sg.m * sg.scale * sg.radiusSign;
+		if (sg.leftSide) {
 			dx = -dx;
 		}
 		// parent.p("parabolic DX: left: " + leftSide + ", needRotation: " +
@@ -279,28 +383,4 @@ final public class ElementParabolic implements ElementBase {
 		return dx;
 	}
 
-	private void updateFactors(OpticalComponent oc, boolean leftSide) {
-		double newSR = oc.sphereRadius(leftSide);
-		double newLR = oc.lensRadius();
-		// double newSRA = abs(newSR);
-		if (srValue != newSR || lrValue != newLR) {
-			mValue = 1 / (newLR * newLR);
-			bValue = pb(newLR, 0, 0);
-
-			srValue = newSR;
-			lrValue = newLR;
-			double a = abs(lensProfileXforYCore(oc, true, 0, 0));
-			double b = abs(lensProfileXforYCore(oc, true, newLR, 0));
-			leftMax = max(a, b);
-			a = abs(lensProfileXforYCore(oc, false, 0, 0));
-			b = abs(lensProfileXforYCore(oc, false, newLR, 0));
-			rightMax = max(a, b);
-			// parent.pr("parabolic updateFactors recalc: sr: " + newSR +
-			// ", lr: "
-			// + newLR + ", m: " + mValue + ", b = " + bValue + ", maxx: "
-			// + maxx + ", minx: " + minx);
-
-		}
-	}
-
 }
@@ -1,56 +1,49 @@
 package opticalraytracer;
 
-import java.util.ArrayList;
-
 final public class ElementPlanar implements ElementBase {
-	OpticalRayTracer parent;
-	private ArrayList<Vector> points;
-	Vector pt;
 
 	// private double epsilon = 1e-8;
 
-	public ElementPlanar(OpticalRayTracer p) {
-		parent = p;
-		points = new ArrayList<Vector>();
-		pt = new Vector();
-		points.add(pt);
+	@Override
+	public SurfaceGeometry createGeometry(OpticalComponent oc,
+			boolean leftSide) {
+		return new SurfaceGeometry(this, oc, leftSide, 0, 0);
 	}
 
 	@Override
-	public void intersections(OpticalComponent oc, boolean leftSide,
-			Vector op1, Vector op2) {
-
-		double angleRadians = oc.angleRadians();
-
-		Vector thr = new Vector(-oc.signedThickness(leftSide), 0)
-				.rotate(angleRadians);
-		Vector tc = new Vector(oc.xPos(), oc.yPos()).translate(thr);
-		Vector p1 = new Vector(op1).translateSub(tc).rotate(-angleRadians);
-		Vector p2 = new Vector(op2).translateSub(tc).rotate(-angleRadians);
+	public int intersections(SurfaceGeometry sg, double x1, double y1,
+			double x2, double y2, double[] points) {
+
+		Vector tc = sg.center;
+		Vector p1 = new Vector(x1, y1).translateSub(tc)
+				.rotate(sg.cosNegAngle, sg.sinNegAngle);
+		Vector p2 = new Vector(x2, y2).translateSub(tc)
+				.rotate(sg.cosNegAngle, sg.sinNegAngle);
+
+		Vector pt = new Vector(0, Common.ntrp(0, p1.x, p2.x, p1.y, p2.y))
+				.rotate(sg.cosAngle, sg.sinAngle).translate(tc);
+		points[0] = pt.x;
+		points[1] = pt.y;
+		return 1;
+	}
 
-		pt.x = 0;
-		pt.y = Common.ntrp(pt.x, p1.x, p2.x, p1.y, p2.y);
-		pt.assign(pt.rotate(angleRadians).translate(tc));
+	@Override
+	public int intersections(SurfaceGeometry sg, RayBatch rb, int count) {
+		return rb.eachLane(sg, count);
 	}
 
 	@Override
-	public double lensProfileXforY(OpticalComponent oc, boolean leftSide,
-			double y, double cx) {
-		double x = (leftSide) ? oc.thickness() : -oc.thickness();
+	public double lensProfileXforY(SurfaceGeometry sg, double y, double cx) {
+		double x = (sg.leftSide) ? sg.thickness : -sg.thickness;
 		// this unattractive hack avoids an overflow when x is perfectly vertical
 		return x + y * 1e-9;
 	}
 
 	@Override
-	public double lensProfileDXforY(OpticalComponent oc, boolean leftSide,
-			boolean entering, double y) {
+	public double lensProfileDXforY(SurfaceGeometry sg, boolean entering,
+			double y) {
 		// always vertical, therefore x' = 0
 		return 0;
 	}
 
-	@Override
-	public ArrayList<Vector> getPoints() {
-		return points;
-	}
-
 }
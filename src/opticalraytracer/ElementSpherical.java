@@ -22,29 +22,26 @@ package opticalraytracer;
 
 import static java.lang.Math.*;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-
 final public class ElementSpherical implements ElementBase {
-	OpticalRayTracer parent;
-	private double srValue = -1;
-	private double lrValue = -1;
-	private double bValue = -1;
 	private double epsilon = 1e-8;
 	// private int testCount = 0;
-	private ArrayList<Vector> points;
 	private int pointsSize = 4;
 
-	public ElementSpherical(OpticalRayTracer p) {
-		parent = p;
-		points = new ArrayList<Vector>();
-		for (int i = 0; i < pointsSize; i++) {
-			points.add(new Vector());
-		}
+	public SurfaceGeometry createGeometry(OpticalComponent oc,
+			boolean leftSide) {
+		double sr = oc.sphereRadius(leftSide);
+		double lr = oc.lensRadius();
+		// mValue = pm(sr);
+		double b = bias(lr, sr);
+		// parent.p("spherical createGeometry: r: " + sr + ", lr: "
+		// + lr + ", b = " + b);
+		return new SurfaceGeometry(this, oc, leftSide, 0, b);
 	}
 
-	public ArrayList<Vector> getPoints() {
-		return points;
+	// the b factor for a sphere radius and lens radius
+
+	double bias(double lr, double sr) {
+		return pb(lr, abs(sr), 0, 0);
 	}
 
 	/*
@@ -65,36 +62,30 @@ final public class ElementSpherical implements ElementBase {
 	// From Python script:
 	// /netbackup/data/java2/OpticalRayTracer_eclipse/python_equation_generator/new_spherical_equation_solutions.py
 
-	private double pa0(double r, double s, double x_1, double y_1) {
-		return -(s * s * y_1 + s * x_1 + sqrt(s
+	// the discriminant root shared by pa0 - pa3, computed
+	// once for each x_1 rather than once for each solution
+
+	private double pr(double r, double s, double x_1, double y_1) {
+		return sqrt(s
 				* s
 				* (r * r * s * s + r * r - s * s * x_1 * x_1 + 2 * s * x_1
-						* y_1 - y_1 * y_1)))
-				/ (s * (s * s + 1));
+						* y_1 - y_1 * y_1));
 	}
 
-	private double pa1(double r, double s, double x_1, double y_1) {
-		return -(s * s * y_1 + s * x_1 + sqrt(s
-				* s
-				* (r * r * s * s + r * r - s * s * x_1 * x_1 + 2 * s * x_1
-						* y_1 - y_1 * y_1)))
-				/ (s * s + 1);
+	private double pa0(double s, double x_1, double y_1, double root) {
+		return -(s * s * y_1 + s * x_1 + root) / (s * (s * s + 1));
 	}
 
-	private double pa2(double r, double s, double x_1, double y_1) {
-		return (-s * (s * y_1 + x_1) + sqrt(s
-				* s
-				* (r * r * s * s + r * r - s * s * x_1 * x_1 + 2 * s * x_1
-						* y_1 - y_1 * y_1)))
-				/ (s * (s * s + 1));
+	private double pa1(double s, double x_1, double y_1, double root) {
+		return -(s * s * y_1 + s * x_1 + root) / (s * s + 1);
 	}
 
-	private double pa3(double r, double s, double x_1, double y_1) {
-		return (-s * (s * y_1 + x_1) + sqrt(s
-				* s
-				* (r * r * s * s + r * r - s * s * x_1 * x_1 + 2 * s * x_1
-						* y_1 - y_1 * y_1)))
-				/ (s * s + 1);
+	private double pa2(double s, double x_1, double y_1, double root) {
+		return (-s * (s * y_1 + x_1) + root) / (s * (s * s + 1));
+	}
+
+	private double pa3(double s, double x_1, double y_1, double root) {
+		return (-s * (s * y_1 + x_1) + root) / (s * s + 1);
 	}
 
 	private double pb(double y, double r, double x_1, double y_1) {
@@ -115,26 +106,23 @@ final public class ElementSpherical implements ElementBase {
 	 * ------------------------------------------------------
 	 */
 
-	public void intersections(OpticalComponent oc, boolean leftSide,
-			Vector op1, Vector op2) {
+	public int intersections(SurfaceGeometry sg, double x1, double y1,
+			double x2, double y2, double[] points) {
 		// Common.p("---------- intersections ------------");
 
-		for (Vector p : points) {
-			p.assign(Vector.invalidState());
-		}
-
-		double angleRadians = oc.angleRadians();
+		double angleRadians = sg.angleRadians;
 
 		Vector thr, tc, p1, p2;
 		double s;
+		// the cached rotation, recomputed only by the retry below
+		double ca = sg.cosAngle, sa = sg.sinAngle;
+		double cn = sg.cosNegAngle, sn = sg.sinNegAngle;
+		tc = sg.center;
 
 		// a somewhat hacky way to avoid the on-axis zero problem
 		while (true) {
-			thr = new Vector(-oc.signedThickness(leftSide), 0)
-					.rotate(angleRadians);
-			tc = new Vector(oc.xPos(), oc.yPos()).translate(thr);
-			p1 = new Vector(op1).translateSub(tc).rotate(-angleRadians);
-			p2 = new Vector(op2).translateSub(tc).rotate(-angleRadians);
+			p1 = new Vector(x1, y1).translateSub(tc).rotate(cn, sn);
+			p2 = new Vector(x2, y2).translateSub(tc).rotate(cn, sn);
 
 			// the all-important line slope value
 			// which must not approach zero
@@ -144,53 +132,124 @@ final public class ElementSpherical implements ElementBase {
 				break;
 			}
 			angleRadians += epsilon;
+			ca = cos(angleRadians);
+			sa = sin(angleRadians);
+			cn = cos(-angleRadians);
+			sn = sin(-angleRadians);
+			thr = new Vector(-sg.signedThickness, 0).rotate(ca, sa);
+			tc = new Vector(sg.xPos, sg.yPos).translate(thr);
 		}
-		
-		updateFactors(oc, leftSide);
 
-		Vector pt;
-		int len_d2 = points.size() / 2;
-		int n = 0;
-		Iterator<Vector> ic = points.iterator();
+		double sr = sg.sphereRadius;
+		int len_d2 = pointsSize / 2;
 		// must compute four possible intersections
 		// each with either sign of the bias variable
 		// this is the only way to allow multiple internal reflections
 		// on the surface of a reflector
-		double sb = bValue;
+		double sb = sg.b;
 		double sbb;
-		while (ic.hasNext()) {
+		// the two x_1 values, p1.x - sb and p1.x + sb,
+		// are all the roots the four solutions need
+		double rm = pr(sr, s, p1.x - sb, p1.y);
+		double rp = pr(sr, s, p1.x + sb, p1.y);
+		for (int n = 0; n < pointsSize; n += 2) {
 			sbb = (n >= len_d2) ? -sb : sb;
-			pt = ic.next();
-			pt.x = pa0(srValue, s, p1.x - sbb, p1.y) + p1.x;
-			pt.y = pa1(srValue, s, p1.x - sbb, p1.y) + p1.y;
-			pt = ic.next();
-			pt.x = pa2(srValue, s, p1.x + sbb, p1.y) + p1.x;
-			pt.y = pa3(srValue, s, p1.x + sbb, p1.y) + p1.y;
-			n += 2;
+			double ra = (n >= len_d2) ? rp : rm;
+			double rb = (n >= len_d2) ? rm : rp;
+			points[n * 2] = pa0(s, p1.x - sbb, p1.y, ra) + p1.x;
+			points[n * 2 + 1] = pa1(s, p1.x - sbb, p1.y, ra) + p1.y;
+			points[n * 2 + 2] = pa2(s, p1.x + sbb, p1.y, rb) + p1.x;
+			points[n * 2 + 3] = pa3(s, p1.x + sbb, p1.y, rb) + p1.y;
 		}
 
 		// test, then restore original rotation and position
-		for (Vector p : points) {
-			if (leftSide ^ oc.radiusSign(leftSide) < 0) {
-				p.x = (p.x < 0) ? Double.NaN : p.x;
+		for (int n = 0; n < pointsSize; n++) {
+			double x = points[n * 2];
+			if (sg.leftSide ^ sg.radiusSign < 0) {
+				x = (x < 0) ? Double.NaN : x;
 			} else {
-				p.x = (p.x > 0) ? Double.NaN : p.x;
+				x = (x > 0) ? Double.NaN : x;
 			}
-			p.assign(p.rotate(angleRadians).translate(tc));
+			Vector p = new Vector(x, points[n * 2 + 1]).rotate(ca, sa)
+					.translate(tc);
+			points[n * 2] = p.x;
+			points[n * 2 + 1] = p.y;
 		}
+		return pointsSize;
 	}
 
-	public double lensProfileXforY(OpticalComponent oc, boolean leftSide,
-			double y, double cx) {
-		updateFactors(oc, leftSide);
-		return lensProfileXforYCore(oc, leftSide, y, cx);
+	// The batch form of intersections(). The same arithmetic is split
+	// into simple loops over lane columns that the JIT compiler can
+	// vectorize, so each surface is solved for many rays per
+	// instruction. A lane whose slope is too small for the closed
+	// form is solved by the scalar routine with its on-axis retry.
+
+	public int intersections(SurfaceGeometry sg, RayBatch rb, int count) {
+		double ca = sg.cosAngle, sa = sg.sinAngle;
+		double cn = sg.cosNegAngle, sn = sg.sinNegAngle;
+		double tcx = sg.center.x;
+		double tcy = sg.center.y;
+		double sr = sg.sphereRadius;
+		double sb = sg.b;
+		int cap = rb.capacity;
+		int[] lanes = rb.lanes;
+		double[] ax = rb.ax, ay = rb.ay, bx = rb.bx, by = rb.by;
+		double[] u = rb.u, v = rb.v, w = rb.w, rm = rb.rm, rp = rb.rp;
+		double[] px = rb.pointX, py = rb.pointY;
+		// lens frame: u = p1.x, v = p1.y, w = slope
+		for (int k = 0; k < count; k++) {
+			int i = lanes[k];
+			double dx1 = ax[i] - tcx, dy1 = ay[i] - tcy;
+			double dx2 = bx[i] - tcx, dy2 = by[i] - tcy;
+			double x1 = dx1 * cn - dy1 * sn, y1 = dy1 * cn + dx1 * sn;
+			double x2 = dx2 * cn - dy2 * sn, y2 = dy2 * cn + dx2 * sn;
+			u[k] = x1;
+			v[k] = y1;
+			w[k] = (y2 - y1) / (x2 - x1);
+		}
+		// the two roots of each lane
+		for (int k = 0; k < count; k++) {
+			rm[k] = pr(sr, w[k], u[k] - sb, v[k]);
+			rp[k] = pr(sr, w[k], u[k] + sb, v[k]);
+		}
+		// the four solutions of each lane, rows as in intersections()
+		for (int k = 0; k < count; k++) {
+			double s = w[k], x = u[k], y = v[k];
+			px[k] = pa0(s, x - sb, y, rm[k]) + x;
+			py[k] = pa1(s, x - sb, y, rm[k]) + y;
+			px[cap + k] = pa2(s, x + sb, y, rp[k]) + x;
+			py[cap + k] = pa3(s, x + sb, y, rp[k]) + y;
+			px[2 * cap + k] = pa0(s, x + sb, y, rp[k]) + x;
+			py[2 * cap + k] = pa1(s, x + sb, y, rp[k]) + y;
+			px[3 * cap + k] = pa2(s, x - sb, y, rm[k]) + x;
+			py[3 * cap + k] = pa3(s, x - sb, y, rm[k]) + y;
+		}
+		// test, then restore original rotation and position
+		boolean positive = sg.leftSide ^ sg.radiusSign < 0;
+		for (int j = 0; j < pointsSize * cap; j += cap) {
+			for (int k = j; k < j + count; k++) {
+				double x = px[k], y = py[k];
+				if (positive) {
+					x = (x < 0) ? Double.NaN : x;
+				} else {
+					x = (x > 0) ? Double.NaN : x;
+				}
+				px[k] = x * ca - y * sa + tcx;
+				py[k] = y * ca + x * sa + tcy;
+			}
+		}
+		for (int k = 0; k < count; k++) {
+			if (!(abs(w[k]) >= epsilon)) {
+				rb.solveLane(sg, k);
+			}
+		}
+		return pointsSize;
 	}
 
-	public double lensProfileXforYCore(OpticalComponent oc, boolean leftSide,
-			double y, double cx) {
-		double x = pb(y, srValue, cx + bValue, 0) * oc.radiusSign(leftSide)
-				- oc.thickness();
-		if (leftSide) {
+	public double lensProfileXforY(SurfaceGeometry sg, double y, double cx) {
+		double x = pb(y, sg.sphereRadius, cx + sg.b, 0) * sg.radiusSign
+				- sg.thickness;
+		if (sg.leftSide) {
 			x = -x;
 		}
 		// testCount += 1;
@@ -202,11 +261,10 @@ final public class ElementSpherical implements ElementBase {
 	}
 
 	// 1st derivative
-	public double lensProfileDXforY(OpticalComponent oc, boolean leftSide,
-			boolean entering, double y) {
-		updateFactors(oc, leftSide);
-		double dx = pd(y, srValue, 0) * oc.radiusSign(leftSide);
-		if (leftSide) {
+	public double lensProfileDXforY(SurfaceGeometry sg, boolean entering,
+			double y) {
+		double dx = pd(y, sg.sphereRadius, 0) * sg.radiusSign;
+		if (sg.leftSide) {
 			dx = -dx;
 		}
 		// Common.p("spherical DX: left: " + leftSide + ", needRotation: " +
@@ -215,18 +273,4 @@ final public class ElementSpherical implements ElementBase {
 		return dx;
 	}
 
-	private void updateFactors(OpticalComponent oc, boolean leftSide) {
-		double newSR = oc.sphereRadius(leftSide);
-		double newLR = oc.lensRadius();
-		double newSRA = abs(newSR);
-		if (srValue != newSR || lrValue != newLR) {
-			// mValue = pm(newSR);
-			bValue = pb(newLR, newSRA, 0, 0);
-			// parent.p("spherical updateFactors recalc: r: " + newSR + ", lr: "
-			// + newLR + ", b = " + bValue);
-			srValue = newSR;
-			lrValue = newLR;
-		}
-	}
-
 }
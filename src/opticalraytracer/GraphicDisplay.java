@@ -3,14 +3,12 @@ package opticalraytracer;
 import static java.lang.Math.abs;
 
 import java.awt.AWTException;
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Cursor;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
-import java.awt.RenderingHints;
 import java.awt.Robot;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -33,6 +31,7 @@ import javax.swing.ImageIcon;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.Timer;
 
 @SuppressWarnings("serial")
 final public class GraphicDisplay extends JPanel {
@@ -47,6 +46,14 @@ final public class GraphicDisplay extends JPanel {
 	RayTraceComputer rayTraceComputer;
 	JPopupMenu popupMenu;
 	boolean hasFocus = false;
+	// draws in the background, the display shows
+	// the latest image it has finished
+	RenderWorker renderWorker;
+	RenderWorker.Request requested = null;
+	BufferedImage renderedImage = null;
+	// true while dragging or zooming, see ProgramValues.interactiveBeamCount
+	boolean interacting = false;
+	Timer idleTimer;
 	
 	Cursor handCursor, moveCursor, crossCursor, defaultCursor;
 
@@ -138,6 +145,16 @@ final public class GraphicDisplay extends JPanel {
 		parent = p;
 		programValues = parent.programValues;
 		rayTraceComputer = parent.rayTraceComputer;
+		renderWorker = new RenderWorker(this);
+		renderWorker.start();
+		idleTimer = new Timer(programValues.interactiveIdleMs,
+				new ActionListener() {
+					@Override
+					public void actionPerformed(ActionEvent e) {
+						endInteraction();
+					}
+				});
+		idleTimer.setRepeats(false);
 		handCursor = new Cursor(Cursor.HAND_CURSOR);
 		moveCursor = new Cursor(Cursor.MOVE_CURSOR);
 		crossCursor = new Cursor(Cursor.CROSSHAIR_CURSOR);
@@ -420,14 +437,66 @@ final public class GraphicDisplay extends JPanel {
 		}
 	}
 
+	// asks for a new image if the scene or view has changed,
+	// and meanwhile shows the last one
+
 	@Override
 	public void paintComponent(Graphics g) {
 		//parent.p("paintcomponent: " + name + " " + testCount);
 		//testCount += 1;
 		int w = getWidth();
 		int h = getHeight();
-		rayTraceProcessCore(w, h,false);
-		g.drawImage(parent.image, 0, 0, null);
+		if (updateGraphicBuffer(w, h)) {
+			parent.unselectButton.setEnabled(parent.selectedComponent != null);
+			RenderWorker.Request r = renderRequest(w, h, false);
+			if (interacting) {
+				r = new RenderWorker.Request(r.scene.interactive(), r.width,
+						r.height, r.background, r.selected);
+			}
+			if (!r.sameAs(requested)) {
+				requested = r;
+				renderWorker.request(r);
+			}
+		}
+		if (renderedImage != null) {
+			g.drawImage(renderedImage, 0, 0, null);
+		} else {
+			super.paintComponent(g);
+		}
+	}
+
+	// the display is traced at reduced quality until the
+	// mouse is released or has been idle for a while
+
+	void interact() {
+		interacting = true;
+		idleTimer.setInitialDelay(programValues.interactiveIdleMs);
+		idleTimer.restart();
+	}
+
+	void endInteraction() {
+		idleTimer.stop();
+		if (interacting) {
+			interacting = false;
+			repaint();
+		}
+	}
+
+	// called on the event dispatch thread with a finished image
+
+	void showImage(BufferedImage image) {
+		renderedImage = image;
+		repaint();
+	}
+
+	RenderWorker.Request renderRequest(int w, int h, boolean forceFocus) {
+		Color bgColor = (hasFocus || forceFocus) ? new Color(
+				programValues.inverse ? programValues.colorLowBackground
+						: programValues.colorHighBackground)
+				: programValues.inverse ? Common.noFocusInverse
+						: Common.noFocusHi;
+		return new RenderWorker.Request(parent.sceneSnapshot(), w, h,
+				bgColor, parent.componentList.indexOf(parent.selectedComponent));
 	}
 
 	// allows drawing any size
@@ -450,33 +519,18 @@ final public class GraphicDisplay extends JPanel {
 		}
 	}
 
+	// draws into parent.image on this thread, for the clipboard
+
 	void rayTraceProcessCore(int w, int h, boolean forceFocus) {
 		// parent.p("raytraceprocesscore: " + name);
 		if (updateGraphicBuffer(w, h)) {
 			parent.unselectButton.setEnabled(parent.selectedComponent != null);
 			Graphics2D bg = (Graphics2D) parent.image.getGraphics();
-			if (programValues.antialias) {
-				RenderingHints rh = new RenderingHints(
-						RenderingHints.KEY_ANTIALIASING,
-						RenderingHints.VALUE_ANTIALIAS_ON);
-				bg.addRenderingHints(rh);
-			}
-			Color bgColor = (hasFocus || forceFocus)?new Color(
-					programValues.inverse ? programValues.colorLowBackground
-							: programValues.colorHighBackground):
-								programValues.inverse ?Common.noFocusInverse:
-								Common.noFocusHi;
-			bg.setColor(bgColor);
-			bg.fillRect(0, 0, parent.image.getWidth(), parent.image.getHeight());
-			if (programValues.beamWidth > 1) {
-				bg.setStroke(new BasicStroke((int) programValues.beamWidth));
-			}
-			if (programValues.showGrid) {
-				rayTraceComputer.drawGrid(bg);
-				rayTraceComputer.drawBaselines(bg);
-			}
-			rayTraceComputer.drawLenses(bg);
-			rayTraceComputer.traceRays(bg, false);
+			RenderWorker.Request r = renderRequest(w, h, forceFocus);
+			RayTraceComputer rtc = new RayTraceComputer(
+					rayTraceComputer.traceEngine);
+			rtc.setView(r.scene, w, h, r.selected);
+			rtc.drawScene(bg, r.background);
 			bg.dispose();
 		}
 	}
@@ -571,7 +625,7 @@ final public class GraphicDisplay extends JPanel {
 			parent.selectedComponent.values.yPos = p.y + parent.mousePressY;
 			parent.selectedComponent.writeObjectControls();
 		}
-
+		interact();
 		rayTraceProcess(true);
 	}
 
@@ -601,7 +655,7 @@ final public class GraphicDisplay extends JPanel {
 		} else {
 			programValues.dispScale *= 1 - mv * .02;
 		}
-
+		interact();
 		rayTraceProcess(true);
 		updateStatusBar(mx, my, false);
 		evt.consume();
@@ -652,7 +706,7 @@ final public class GraphicDisplay extends JPanel {
 	OpticalComponent testMouseInsideLens(Vector mp, boolean isPopup) {
 		ArrayList<OpticalComponent> lensSet = new ArrayList<OpticalComponent>();
 		for (OpticalComponent oc : parent.componentList) {
-			if (oc.inside(mp, oc.mouseProximityPolygon)) {
+			if (oc.inside(mp, oc.mouseProximityPolygon())) {
 				lensSet.add(oc);
 			}
 		}
@@ -675,6 +729,8 @@ final public class GraphicDisplay extends JPanel {
 	
 	void handleMouseReleaseEvent(MouseEvent evt) {
 		this.setCursor(defaultCursor);
+		interacting = false;
+		idleTimer.stop();
 		if (parent.selectedComponent != null) {
 			parent.selectedComponent.snapToGrid();
 			if (parent.selectedComponent != null) {
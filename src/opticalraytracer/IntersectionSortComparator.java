@@ -1,34 +0,0 @@
-/***************************************************************************
- *   Copyright (C) 2014 by Paul Lutus                                      *
- *   lutusp@arachnoid.com                                                  *
- *                                                                         *
- *   This program is free software; you can redistribute it and/or modify  *
- *   it under the terms of the GNU General Public License as published by  *
- *   the Free Software Foundation; either version 2 of the License, or     *
- *   (at your option) any later version.                                   *
- *                                                                         *
- *   This program is distributed in the hope that it will be useful,       *
- *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
- *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
- *   GNU General Public License for more details.                          *
- *                                                                         *
- *   You should have received a copy of the GNU General Public License     *
- *   along with this program; if not, write to the                         *
- *   Free Software Foundation, Inc.,                                       *
- *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
- ***************************************************************************/
- 
-package opticalraytracer;
-
-import java.util.*;
-
-/**
- *
- * @author lutusp
- */
-final public class IntersectionSortComparator implements Comparator<RayLensIntersection> {
-
-    public int compare(RayLensIntersection s1, RayLensIntersection s2) {
-        return (s1.m > s2.m)?1:(s1.m == s2.m)?0:-1;
-    }
-}
@@ -3,6 +3,9 @@ package opticalraytracer;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 
 import javax.swing.JButton;
@@ -11,7 +14,9 @@ import javax.swing.JTextArea;
 
 final public class LineAnalysis {
 	OpticalRayTracer parent;
-	LineData closestLine;
+	// the segment nearestLineProperties() found, closestLine in closestStore
+	SegmentStore closestStore;
+	int closestLine = -1;
 	double minValue;
 	String[] header = new String[] { "From","To", "Source", "Destination",
 			"DestinationType", "FromX", "FromY", "ToX", "ToY", "DeltaX",
@@ -58,9 +63,9 @@ final public class LineAnalysis {
 		return parent.formatNum(v);
 	}
 
-	protected String makeRow(LineData ld, String token) {
+	protected String makeRow(SegmentStore lines, int i, String token) {
 		StringBuilder sb = new StringBuilder();
-		ArrayList<String> array = makeRow(ld);
+		ArrayList<String> array = makeRow(lines, i);
 		boolean start = true;
 		for(String s : array) {
 			if(!start) {
@@ -72,18 +77,34 @@ final public class LineAnalysis {
 		return sb.toString();
 	}
 	
-	protected ArrayList<String> makeRow(LineData ld) {
+	// the labels of segment i of s are made here, as it's displayed
+
+	protected ArrayList<String> makeRow(SegmentStore s, int i) {
 		ArrayList<String> array = new ArrayList<>();
-		array.add(ld.fromEvent);
-		array.add(ld.toEvent);
-		array.add(ld.from);
-		array.add(ld.to);
-		array.add(ld.type);
-		for (double v : ld.numericValues()) {
-			array.add(parent.formatNum(v));
+		for (int n = 0; n < header.length; n++) {
+			array.add(makeCell(s, i, n));
 		}
 		return array;
 	}
+
+	// column n of the row of segment i of s
+
+	protected String makeCell(SegmentStore s, int i, int n) {
+		switch (n) {
+		case 0:
+			return s.fromEventName(i);
+		case 1:
+			return s.toEventName(i);
+		case 2:
+			return s.fromLabel(i);
+		case 3:
+			return s.toLabel(i);
+		case 4:
+			return s.typeLabel(i);
+		default:
+			return parent.formatNum(s.numericValue(i, n - 5));
+		}
+	}
 	
 	protected boolean isRightJust(int n) {
 		boolean rj = true;
@@ -96,64 +117,90 @@ final public class LineAnalysis {
 		return rj;
 	}
 
-	protected String createHTMLTable(boolean linefeeds) {
-		StringBuilder sb = new StringBuilder();
-		sb.append("<tr><th>");
-		sb.append(makeHeader("</th><th>"));
-		sb.append("</th></tr>");
+	// the tables are written a row at a time as the trace streams
+	// its segments, so an export of any size never holds more than
+	// a group of segments, and the string versions are made by
+	// writing to a StringWriter
+
+	protected void writeHTMLTable(final Writer out, final boolean linefeeds)
+			throws IOException {
+		out.write(Common.openTag("html", "", linefeeds));
+		out.write("<head>\n");
+		out.write(meta);
+		for (String s : css) {
+			out.write(s);
+			out.write("\n");
+		}
+		out.write("</head>\n");
+		out.write(Common.openTag("body", "", linefeeds));
+		out.write(Common.openTag("table", "cellspacing=\"0\" cellpadding=\"2\"",
+				linefeeds));
+		out.write("<tr><th>");
+		out.write(makeHeader("</th><th>"));
+		out.write("</th></tr>");
 		if (linefeeds) {
-			sb.append("\n");
+			out.write("\n");
 		}
-		for (LineData ld : parent.rayTraceComputer.lineList) {
-			sb.append("<tr>");
-			ArrayList<String> sa = makeRow(ld);
+		parent.rayTraceComputer.traceRays(new TraceEngine.SegmentSink() {
+			public void write(SegmentStore lines) throws IOException {
+				writeHTMLRows(out, lines, linefeeds);
+			}
+		});
+		out.write(Common.closeTag("table", linefeeds));
+		out.write(Common.closeTag("body", linefeeds));
+		out.write(Common.closeTag("html", linefeeds));
+	}
+
+	protected void writeHTMLRows(Writer out, SegmentStore lines,
+			boolean linefeeds) throws IOException {
+		for (int i = 0; i < lines.size(); i++) {
+			out.write("<tr>");
+			ArrayList<String> sa = makeRow(lines, i);
 			int cn = 0;
-			for(String s : sa) {
+			for (String s : sa) {
 				boolean rj = isRightJust(cn);
-				String cls = (rj)?"":"class = \"lj\"";
-				String ws = Common.wrapTag("td",s,cls,false);
-				sb.append(ws);
+				String cls = (rj) ? "" : "class = \"lj\"";
+				out.write(Common.wrapTag("td", s, cls, false));
 				cn += 1;
 			}
-			sb.append("</tr>");
+			out.write("</tr>");
 			if (linefeeds) {
-				sb.append("\n");
+				out.write("\n");
 			}
-			
 		}
-		String result = "";
-		result = Common.wrapTag("table", sb.toString(),
-				"cellspacing=\"0\" cellpadding=\"2\"", linefeeds);
-		result = Common.wrapTag("body", result, "", linefeeds);
-		sb = new StringBuilder();
-		sb.append("<head>\n");
-		sb.append(meta);
-		for (String s : css) {
-			sb.append(s);
-			sb.append("\n");
-		}
-		sb.append("</head>\n");
-		sb.append(result);
-		result = sb.toString();
-		result = Common.wrapTag("html", result, "", linefeeds);
-		return result;
+	}
+
+	protected void writeCSVTable(final Writer out) throws IOException {
+		out.write(makeHeader("\t"));
+		out.write("\n");
+		parent.rayTraceComputer.traceRays(new TraceEngine.SegmentSink() {
+			public void write(SegmentStore lines) throws IOException {
+				for (int i = 0; i < lines.size(); i++) {
+					out.write(makeRow(lines, i, "\t"));
+					out.write("\n");
+				}
+			}
+		});
 	}
 
 	protected String makeHTMLTable(boolean linefeeds) {
-		parent.rayTraceComputer.traceRays(null, true);
-		return createHTMLTable(linefeeds);
+		StringWriter sw = new StringWriter();
+		try {
+			writeHTMLTable(sw, linefeeds);
+		} catch (IOException e) {
+			// a StringWriter doesn't throw
+		}
+		return sw.toString();
 	}
 
 	protected String makeCSVTable() {
-		parent.rayTraceComputer.traceRays(null, true);
-		StringBuilder sb = new StringBuilder();
-		sb.append(makeHeader("\t"));
-		sb.append("\n");
-		for (LineData ld : parent.rayTraceComputer.lineList) {
-			sb.append(makeRow(ld,"\t"));
-			sb.append("\n");
+		StringWriter sw = new StringWriter();
+		try {
+			writeCSVTable(sw);
+		} catch (IOException e) {
+			// a StringWriter doesn't throw
 		}
-		return sb.toString();
+		return sw.toString();
 	}
 
 	protected String makeHeader(String token) {
@@ -172,41 +219,44 @@ final public class LineAnalysis {
 
 	protected void nearestLineProperties(double mx, double my) {
 		//Common.p("nearestlineproperties");
-		closestLine = null;
+		closestLine = -1;
 		parent.rayTraceComputer.traceRays(null, true);
+		closestStore = parent.rayTraceComputer.lineList;
 		minValue = 1e9;
-		for (LineData ld : parent.rayTraceComputer.lineList) {
-			compare(ld, mx, my);
+		for (int i = 0; i < closestStore.size(); i++) {
+			compare(closestStore, i, mx, my);
 		}
-		if (closestLine != null) {
+		if (closestLine >= 0) {
+			SegmentStore s = closestStore;
+			int i = closestLine;
 			StringBuilder sb = new StringBuilder();
 			sb.append(String.format("%-24s: %13s%13s\n", "Property", "x", "y"));
 			sb.append("----------------------------------------------------\n");
 			sb.append(String.format("%-24s: {%12s,%12s}\n", "Origin",
-					fmtNum(closestLine.a.x), fmtNum(closestLine.a.y)));
+					fmtNum(s.ax[i]), fmtNum(s.ay[i])));
 			sb.append(String.format("%-24s: {%12s,%12s}\n", "Destination",
-					fmtNum(closestLine.b.x), fmtNum(closestLine.b.y)));
+					fmtNum(s.bx[i]), fmtNum(s.by[i])));
 			sb.append(String.format("%-24s: {%12s,%12s}\n", "Line length",
-					fmtNum(closestLine.b.x - closestLine.a.x),
-					fmtNum(closestLine.b.y - closestLine.a.y)));
+					fmtNum(s.bx[i] - s.ax[i]),
+					fmtNum(s.by[i] - s.ay[i])));
 			sb.append(String.format("%-24s: %26s\n", "Magnitude",
-					fmtNum(closestLine.m)));
+					fmtNum(s.numericValue(i, 6))));
 			sb.append(String.format("%-24s: %26s°\n", "Beam Angle",
-					fmtNum(closestLine.ar)));
+					fmtNum(s.numericValue(i, 7))));
 			sb.append(String.format("%-24s: %26s°\n", "Dest. Surface Normal",
-					fmtNum(closestLine.sa)));
+					fmtNum(s.numericValue(i, 8))));
 			sb.append(String.format("%-24s: %26s\n", "Wavelength NM",
-					fmtNum(closestLine.wavelength)));
+					fmtNum(s.numericValue(i, 9))));
 			
 			sb.append(String
-					.format("%-24s: %26s\n", "From", closestLine.fromEvent));
+					.format("%-24s: %26s\n", "From", s.fromEventName(i)));
 			sb.append(String
-					.format("%-24s: %26s\n", "To", closestLine.toEvent));
+					.format("%-24s: %26s\n", "To", s.toEventName(i)));
 			sb.append(String.format("%-24s: %26s\n", "Source",
-					closestLine.from));
-			sb.append(String.format("%-24s: %26s\n", "Destination", closestLine.to));
+					s.fromLabel(i)));
+			sb.append(String.format("%-24s: %26s\n", "Destination", s.toLabel(i)));
 			sb.append(String.format("%-24s: %26s\n", "Destination Type",
-					closestLine.type));
+					s.typeLabel(i)));
 			showInfoDialog(sb.toString(), "Line Properties");
 		} else {
 			parent.showNotifyMessage("No Nearby Line", "Line Properties");
@@ -235,12 +285,12 @@ final public class LineAnalysis {
 				JOptionPane.INFORMATION_MESSAGE);
 	}
 	
-	protected void copyLineToClipboard(LineData ld) {
-		if(ld != null) {
+	protected void copyLineToClipboard(SegmentStore s, int i) {
+		if(s != null && i >= 0 && i < s.size()) {
 			StringBuilder sb = new StringBuilder();
 			sb.append(makeHeader("\t"));
 			sb.append("\n");
-			sb.append(makeRow(ld,"\t"));
+			sb.append(makeRow(s, i, "\t"));
 			sb.append("\n");
 			parent.clipboardCopyString(sb.toString());
 		}
@@ -250,17 +300,18 @@ final public class LineAnalysis {
 	}
 	
 	protected void copyNearestLineToClipboard() {
-		copyLineToClipboard(closestLine);
+		copyLineToClipboard(closestStore, closestLine);
 	}
 
-	protected void compare(LineData ld, double mx, double my) {
-		double lx = Common.xCoordinateOnLine(mx, my, ld.a.x, ld.a.y, ld.b.x, ld.b.y);
-		double ly = Common.yCoordinateOnLine(mx, my, ld.a.x, ld.a.y, ld.b.x, ld.b.y);
-		double m = Common.distanceToLine(mx, my, ld.a.x, ld.a.y, ld.b.x, ld.b.y);
-		if (Common.inBounds(lx, ly, ld.a.x, ld.a.y, ld.b.x, ld.b.y)) {
+	protected void compare(SegmentStore s, int i, double mx, double my) {
+		double ax = s.ax[i], ay = s.ay[i], bx = s.bx[i], by = s.by[i];
+		double lx = Common.xCoordinateOnLine(mx, my, ax, ay, bx, by);
+		double ly = Common.yCoordinateOnLine(mx, my, ax, ay, bx, by);
+		double m = Common.distanceToLine(mx, my, ax, ay, bx, by);
+		if (Common.inBounds(lx, ly, ax, ay, bx, by)) {
 			// update closest line
 			if (minValue > m) {
-				closestLine = ld;
+				closestLine = i;
 				minValue = m;
 			}
 		}
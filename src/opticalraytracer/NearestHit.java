@@ -0,0 +1,108 @@
+/***************************************************************************
+ *   Copyright (C) 2014 by Paul Lutus                                      *
+ *   lutusp@arachnoid.com                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+
+package opticalraytracer;
+
+// Streaming replacement for collecting every candidate intersection
+// and sorting by range: each candidate is tested as it is produced
+// and only the nearest acceptable one is kept, in primitive fields.
+// One instance is reused for every ray a thread searches for.
+
+final public class NearestHit {
+	// current ray segment
+	double ax, ay, bx, by;
+	double epsilon;
+	// best candidate so far
+	OpticalComponent lens;
+	// list position of lens
+	int index;
+	boolean leftSide;
+	double x, y, dot, m;
+	// position of the best candidate in a linear scan
+	// of the component list, this breaks range ties
+	// so the result doesn't depend on search order
+	int rank;
+	// scratch stack for ComponentTree traversal
+	int[] stack = new int[64];
+
+	void reset(double x1, double y1, double x2, double y2, double epsilon) {
+		ax = x1;
+		ay = y1;
+		bx = x2;
+		by = y2;
+		this.epsilon = epsilon;
+		lens = null;
+		m = Double.POSITIVE_INFINITY;
+		rank = Integer.MAX_VALUE;
+	}
+
+	// offers the intersections of both surfaces of a component,
+	// index is its position in the component list
+
+	void offerComponent(OpticalComponent oc, int index, double[] points) {
+		// skip the surface solutions when the ray
+		// can't reach the component
+		if (oc.values.active && oc.rayMayHit(ax, ay, bx, by)) {
+			for (int i = 0; i <= 1; i++) {
+				// lens profile and intersection routines must be
+				// kept synchronized as to the lens side
+				int count = oc.computeIntersections(i == 0, ax, ay, bx, by,
+						points);
+				for (int n = 0; n < count; n++) {
+					offer(oc, index, i == 0, points[n * 2], points[n * 2 + 1],
+							(index * 2 + i) * ElementBase.MAX_POINTS + n);
+				}
+			}
+		}
+	}
+
+	// accepts the candidate point if it lies ahead of the ray,
+	// beyond epsilon, nearer than the current best and within
+	// the lens outline
+	boolean offer(OpticalComponent oc, int n, boolean left, double px,
+			double py, int r) {
+		double dx = px - ax;
+		double dy = py - ay;
+		// current direction by dot product
+		double d = dx * (bx - ax) + dy * (by - ay);
+		// squared magnitude
+		double mm = dx * dx + dy * dy;
+		// of two equal-range candidates keep the earlier one,
+		// as the stable sort did
+		if (d > 0 && mm > epsilon && (mm < m || (mm == m && r < rank))
+				&& oc.insideOptical(px, py)) {
+			lens = oc;
+			index = n;
+			leftSide = left;
+			x = px;
+			y = py;
+			dot = d;
+			m = mm;
+			rank = r;
+			return true;
+		}
+		return false;
+	}
+
+	boolean found() {
+		return lens != null;
+	}
+}
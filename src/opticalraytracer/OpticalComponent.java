@@ -26,16 +26,14 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Polygon;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 
 final public class OpticalComponent {
 	OpticalRayTracer parent;
 	ProgramValues programValues;
-	RayTraceComputer rayTraceComputer;
 	ObjectValues values;
-	ArrayList<Vector> opticalTestPolygon;
-	ArrayList<Vector> objectDrawingImage;
-	ArrayList<Vector> mouseProximityPolygon;
 	Vector farFarAway;
 	double objectInsideEpsilon;
 	double internalThickness = 0;
@@ -46,15 +44,79 @@ final public class OpticalComponent {
 	double leftCenter = 0;
 	double rightCenter = 0;
 	private double angleRadians = 0;
-	private double localSurfaceEpsilon = 0;
+	// the rotation and its inverse, set with angleRadians
+	private double cosAngle = 1, sinAngle = 0;
+	private double cosNegAngle = 1, sinNegAngle = 0;
 	static final double maxZValue = 1e8;
 	
 	//double epsilon = 1e-8;
-	private ElementBase[] elements = null;
+	// the optical elements are stateless and shared by all components
+	private static final ElementBase[] elements = new ElementBase[] {
+			new ElementSpherical(), new ElementParabolic(),
+			new ElementHyperbolic(), new ElementPlanar() };
+	// immutable surface constants, replaced by each reconfigure()
+	private SurfaceGeometry leftGeometry = null;
+	private SurfaceGeometry rightGeometry = null;
+	// world-space circle enclosing everything insideOptical() accepts
+	double boundX, boundY, boundRadius;
+	// what reconfigure() had to correct, shown by showConfiguration()
+	boolean leftRadiusLimited = false;
+	boolean rightRadiusLimited = false;
+	double thicknessBias = 0;
+	// the outlines in the lens frame, kept by reconfigure() while the
+	// shape is the same, so a move or a rotation reuses them -- a
+	// snapshot copy shares them with the component it was taken from
+	private LocalShape shape = null;
+	// mouseProximityPolygon() in world space, made when first needed
+	private volatile ArrayList<Vector> worldProximityPolygon = null;
+	// the most a drawn outline may depart from the lens, in pixels
+	static final double outlineTolerance = 0.25;
+	// the segments an outline side starts from
+	static final int outlineSegments = 8;
+	// the zoom bands a shape keeps drawing outlines for, enough
+	// for both displays and a clipboard image
+	static final int outlineBands = 4;
+
+	// the lens frame outlines of one shape, which don't depend on
+	// xPos, yPos or angle -- key holds every value they do depend on
+
+	private static final class LocalShape {
+		final Object[] key;
+		final double drawCount;
+		final double objectInsideEpsilon;
+		// for comparing with circle-line intersection results
+		final ArrayList<Vector> testPolygon;
+		// for mouse object detection
+		final ArrayList<Vector> proximityPolygon;
+		// drawing outlines for the zoom bands drawn most recently,
+		// the latest first -- replaced, never modified
+		volatile Outline[] outlines = new Outline[0];
+
+		LocalShape(Object[] key, double drawCount,
+				double objectInsideEpsilon, ArrayList<Vector> testPolygon,
+				ArrayList<Vector> proximityPolygon) {
+			this.key = key;
+			this.drawCount = drawCount;
+			this.objectInsideEpsilon = objectInsideEpsilon;
+			this.testPolygon = testPolygon;
+			this.proximityPolygon = proximityPolygon;
+		}
+	}
+
+	// a drawing outline, and the zoom band it was made for
+
+	private static final class Outline {
+		final int band;
+		final ArrayList<Vector> points;
+
+		Outline(int band, ArrayList<Vector> points) {
+			this.band = band;
+			this.points = points;
+		}
+	}
 
 	public OpticalComponent(OpticalRayTracer p, int function) {
 		parent = p;
-		rayTraceComputer = parent.rayTraceComputer;
 		programValues = parent.programValues;
 		String name = nextObjectName(function);
 		values = new ObjectValues(name);
@@ -66,7 +128,6 @@ final public class OpticalComponent {
 
 	public OpticalComponent(OpticalRayTracer p, int function, String name) {
 		parent = p;
-		rayTraceComputer = parent.rayTraceComputer;
 		programValues = parent.programValues;
 		values = new ObjectValues(name);
 		renameIfRequired();
@@ -79,7 +140,6 @@ final public class OpticalComponent {
 	public OpticalComponent(OpticalRayTracer p, String data, int function) {
 		parent = p;
 		programValues = parent.programValues;
-		rayTraceComputer = parent.rayTraceComputer;
 		String name = nextObjectName(function);
 		values = new ObjectValues(name);
 		setObjectSize(function);
@@ -88,12 +148,29 @@ final public class OpticalComponent {
 		writeObjectControls();
 	}
 
+	// a component with no user interface, parent is null
+
+	public OpticalComponent(ProgramValues programValues, ObjectValues values) {
+		this.programValues = programValues;
+		this.values = values;
+		valid = true;
+		setup();
+	}
+
+	// as above, reusing the outlines of similar if its shape is the same
+
+	OpticalComponent(ProgramValues programValues, ObjectValues values,
+			OpticalComponent similar) {
+		this.programValues = programValues;
+		this.values = values;
+		shape = similar.shape;
+		valid = true;
+		setup();
+	}
+
 	// set up array of optical element types
 
 	protected void setup() {
-		elements = new ElementBase[] { new ElementSpherical(parent),
-				new ElementParabolic(parent), new ElementHyperbolic(parent),
-				new ElementPlanar(parent) };
 		reconfigure();
 	}
 
@@ -144,6 +221,10 @@ final public class OpticalComponent {
 		return elements[leftSide ? values.leftCurvature : values.rightCurvature];
 	}
 
+	SurfaceGeometry surface(boolean leftSide) {
+		return (leftSide) ? leftGeometry : rightGeometry;
+	}
+
 	protected double xPos() {
 		return values.xPos;
 	}
@@ -201,6 +282,14 @@ final public class OpticalComponent {
 		return angleRadians;
 	}
 
+	protected double cosAngle() {
+		return cosAngle;
+	}
+
+	protected double sinAngle() {
+		return sinAngle;
+	}
+
 	protected boolean isReflector() {
 		return values.function == Common.OBJECT_REFLECTOR;
 	}
@@ -214,14 +303,16 @@ final public class OpticalComponent {
 	// end common access functions
 
 	protected void reconfigure() {
-		// must maintain and update the local copy of this value
-		localSurfaceEpsilon = parent.programValues.surfEpsilon;
 		// this is the opposite end of the line used in inside-lens calculations
 		farFarAway = new Vector(1e6, 1e6);
 		limitPositions();
 		// modulo to first circle for consistency
 		// with large entered angles
 		angleRadians = (values.angle % 360.0) * -Common.radians;
+		cosAngle = cos(angleRadians);
+		sinAngle = sin(angleRadians);
+		cosNegAngle = cos(-angleRadians);
+		sinNegAngle = sin(-angleRadians);
 		values.thickness = max(values.thickness, 0);
 		values.ior = max(values.ior, 1);
 		values.lensRadius = abs(values.lensRadius);
@@ -234,14 +325,8 @@ final public class OpticalComponent {
 		}
 		double lsr = checkRadius(values.leftSphereRadius);
 		double rsr = checkRadius(values.rightSphereRadius);
-		boolean lch = lsr != values.leftSphereRadius;
-		boolean rch = rsr != values.rightSphereRadius;
-		parent.leftSphereRadiusTextField.setForeground(lch ? Color.RED
-				: Color.BLACK);
-		parent.rightSphereRadiusTextField.setForeground(rch ? Color.RED
-				: Color.BLACK);
-		parent.lensRadiusTextField.setForeground(lch || rch ? Color.RED
-				: Color.BLACK);
+		leftRadiusLimited = lsr != values.leftSphereRadius;
+		rightRadiusLimited = rsr != values.rightSphereRadius;
 		values.leftSphereRadius = lsr;
 		values.rightSphereRadius = rsr;
 		leftCenter = sqrt(lsr * lsr - values.lensRadius * values.lensRadius);
@@ -263,39 +348,119 @@ final public class OpticalComponent {
 		// ObjectValues instance only to make it
 		// accessible externally -- setting its value has no effect,
 		// it is a "write-only" value
-		parent.centerThicknessTextField.setText(parent
-				.formatNum(values.centerThickness));
 		//Common.p("" + centerThickness);
 		// compute bias to prevent lens crossover
-		double bias = max(rightSurface - leftSurface, 0);
+		thicknessBias = max(rightSurface - leftSurface, 0);
 		// assert minimum lens thickness
-		internalThickness = internalThickness + bias / 2;
+		internalThickness = internalThickness + thicknessBias / 2;
 		// don't allow a lens to be thinner than the surface epsilon
 		// otherwise the algorithm can't distinguish between its sides
-		internalThickness = max(internalThickness,
-				parent.programValues.surfEpsilon);
+		internalThickness = max(internalThickness, programValues.surfEpsilon);
+		// precompute the surface constants used by
+		// the intersection and profile routines
+		leftGeometry = getElement(true).createGeometry(this, true);
+		rightGeometry = getElement(false).createGeometry(this, false);
+		// the outlines are made again only if the shape has changed,
+		// moving or rotating the component leaves them as they are
+		Object[] key = new Object[] { internalThickness,
+				values.lensRadius, values.leftSphereRadius,
+				values.rightSphereRadius, values.leftZValue,
+				values.rightZValue, values.leftCurvature,
+				values.rightCurvature, isReflector(),
+				programValues.surfEpsilon };
+		if (shape == null || !Arrays.equals(key, shape.key)) {
+			drawCount = 32;
+			double leastRadius = min(abs(values.leftSphereRadius),
+					abs(values.rightSphereRadius));
+			double v = 1024 * pow(values.lensRadius / leastRadius, 3);
+			drawCount = max(drawCount, v);
+			objectInsideEpsilon = programValues.surfEpsilon
+					* sqrt(values.lensRadius);
+			// the drawing outline is tessellated for the
+			// zoom it's drawn at, by drawingOutline()
+			shape = new LocalShape(key, drawCount, objectInsideEpsilon,
+					createObjectPerimeter((int) drawCount,
+							objectInsideEpsilon), createObjectPerimeter(
+							(int) drawCount, objectInsideEpsilon * 200));
+		}
+		drawCount = shape.drawCount;
+		objectInsideEpsilon = shape.objectInsideEpsilon;
+		worldProximityPolygon = null;
+		computeBounds();
+		// showPerimeter(opticalTestPolygon);
+		if (parent != null) {
+			showConfiguration();
+		}
+	}
+
+	// flags the entries reconfigure() corrected
+	// and shows the values it derived
+
+	protected void showConfiguration() {
+		boolean lch = leftRadiusLimited;
+		boolean rch = rightRadiusLimited;
+		parent.leftSphereRadiusTextField.setForeground(lch ? Color.RED
+				: Color.BLACK);
+		parent.rightSphereRadiusTextField.setForeground(rch ? Color.RED
+				: Color.BLACK);
+		parent.lensRadiusTextField.setForeground(lch || rch ? Color.RED
+				: Color.BLACK);
+		parent.centerThicknessTextField.setText(parent
+				.formatNum(values.centerThickness));
 		parent.internalThicknessTextField.setText(parent
 				.formatNum(internalThickness * 2));
-		parent.internalThicknessTextField.setForeground((bias > 0 ? Color.RED
-				: Color.BLACK));
-		parent.thicknessTextField.setForeground((bias > 0 ? Color.RED
+		parent.internalThicknessTextField
+				.setForeground((thicknessBias > 0 ? Color.RED : Color.BLACK));
+		parent.thicknessTextField.setForeground((thicknessBias > 0 ? Color.RED
 				: Color.BLACK));
-		drawCount = 32;
-		double leastRadius = min(abs(values.leftSphereRadius),
-				abs(values.rightSphereRadius));
-		double v = 1024 * pow(values.lensRadius / leastRadius, 3);
-		drawCount = max(drawCount, v);
-		objectInsideEpsilon = parent.programValues.surfEpsilon
-				* sqrt(values.lensRadius);
-		// for comparing with circle-line intersection results
-		opticalTestPolygon = createObjectPerimeter((int) drawCount,
-				objectInsideEpsilon);
-		// for graphic imaging
-		objectDrawingImage = createObjectPerimeter((int) drawCount, 0);
-		// for mouse object detection
-		mouseProximityPolygon = createObjectPerimeter((int) drawCount,
-				objectInsideEpsilon * 200);
-		// showPerimeter(opticalTestPolygon);
+	}
+
+	// the profiles are monotonic in |y|, so the lens extent in x
+	// is found at the axis and the rim -- the test polygon vertices
+	// are included as well, for a profile that has no value there
+
+	void computeBounds() {
+		double lr = values.lensRadius;
+		double mx = 0;
+		for (double y : new double[] { 0, lr, -lr }) {
+			Vector p = lensXforY(y, 0);
+			if (p.isValid()) {
+				mx = max(mx, max(abs(p.x), abs(p.y)));
+			}
+		}
+		mx += objectInsideEpsilon;
+		double r = sqrt(mx * mx + lr * lr);
+		for (Vector p : shape.testPolygon) {
+			r = max(r, p.m());
+		}
+		boundX = values.xPos;
+		boundY = values.yPos;
+		// a margin for rounding
+		boundRadius = r * (1 + 1e-9) + programValues.surfEpsilon;
+	}
+
+	// true unless the ray from a through b provably misses
+	// the bounding circle, in which case neither surface
+	// can produce an acceptable intersection
+
+	boolean rayMayHit(double ax, double ay, double bx, double by) {
+		double dx = bx - ax;
+		double dy = by - ay;
+		double wx = boundX - ax;
+		double wy = boundY - ay;
+		double ww = wx * wx + wy * wy;
+		double rr = boundRadius * boundRadius;
+		if (ww <= rr) {
+			// ray starts inside the circle
+			return true;
+		}
+		double t = wx * dx + wy * dy;
+		if (t <= 0) {
+			// circle is behind the ray
+			return false;
+		}
+		// squared distance from the center to the ray line
+		return ww - t * t / (dx * dx + dy * dy) <= rr;
 	}
 
 	// this routine establishes whether a point is inside a polygon
@@ -362,6 +527,31 @@ final public class OpticalComponent {
 		return inside;
 	}
 
+	// the analytic equivalent of inside(p, opticalTestPolygon):
+	// in the lens frame a point is inside when it lies within
+	// the lens radius and between the two surface profiles,
+	// widened by the same epsilon as the test polygon, so the
+	// cost doesn't depend on drawCount
+
+	boolean insideOptical(double px, double py) {
+		if (Double.isNaN(px) || Double.isNaN(py)) {
+			return false;
+		}
+		Vector lp = new Vector(px - values.xPos, py - values.yPos)
+				.rotate(cosNegAngle, sinNegAngle);
+		if (abs(lp.y) > values.lensRadius) {
+			return false;
+		}
+		double a = leftGeometry.profileX(lp.y, 0);
+		double b = rightGeometry.profileX(lp.y, 0);
+		// a profile without a value here, use the polygon
+		if (Double.isNaN(a) || Double.isNaN(b)) {
+			return inside(lp, shape.testPolygon);
+		}
+		return lp.x >= min(a, b) - objectInsideEpsilon
+				&& lp.x <= max(a, b) + objectInsideEpsilon;
+	}
+
 	// debugging tool
 	void showPerimeter(ArrayList<Vector> points) {
 		StringBuilder sb = new StringBuilder();
@@ -371,6 +561,28 @@ final public class OpticalComponent {
 		Common.p(sb.toString());
 	}
 
+	// the mouse proximity polygon in world space
+
+	ArrayList<Vector> mouseProximityPolygon() {
+		ArrayList<Vector> points = worldProximityPolygon;
+		if (points == null) {
+			points = toWorld(shape.proximityPolygon);
+			worldProximityPolygon = points;
+		}
+		return points;
+	}
+
+	ArrayList<Vector> toWorld(ArrayList<Vector> local) {
+		ArrayList<Vector> points = new ArrayList<>(local.size());
+		for (Vector p : local) {
+			points.add(p.rotate(cosAngle, sinAngle).translate(values.xPos,
+					values.yPos));
+		}
+		return points;
+	}
+
+	// the perimeter in the lens frame
+
 	ArrayList<Vector> createObjectPerimeter(int segments, double epsilon) {
 		Vector p;
 		ArrayList<Vector> points = new ArrayList<>();
@@ -388,14 +600,8 @@ final public class OpticalComponent {
 					p.x += epsilon;
 					p.y -= epsilon;
 				}
-				Vector ca = new Vector().rotate(p.x, y, angleRadians)
-						.translate(values.xPos, values.yPos);
-				// ca.rotate(p.x, y, angleRadians);
-				// ca.translate(values.xPos, values.yPos);
-				Vector cb = new Vector().rotate(p.y, y, angleRadians)
-						.translate(values.xPos, values.yPos);
-				// cb.rotate(p.y, y, angleRadians);
-				// cb.translate(values.xPos, values.yPos);
+				Vector ca = new Vector(p.x, y);
+				Vector cb = new Vector(p.y, y);
 				if (i == 0) {
 					if (j == 0) {
 						points.add(cb);
@@ -414,9 +620,9 @@ final public class OpticalComponent {
 
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		sb.append("object {" + parent.lineSep);
+		sb.append("object {" + values.lineSep);
 		sb.append(values.getValues());
-		sb.append("}" + parent.lineSep);
+		sb.append("}" + values.lineSep);
 		return sb.toString();
 	}
 
@@ -496,22 +702,23 @@ final public class OpticalComponent {
 		return v;
 	}
 
-	void computeIntersections(RayLensIntersection oldrli, OpticalComponent oc,
-			boolean leftSide, Vector p1, Vector p2) {
-		ElementBase element = getElement(leftSide);
-
-		element.intersections(oc, leftSide, p1, p2);
+	// writes candidate x,y pairs into points, returns the pair count
 
+	int computeIntersections(boolean leftSide, double x1, double y1,
+			double x2, double y2, double[] points) {
+		return surface(leftSide).intersections(x1, y1, x2, y2, points);
 	}
 
-	double tangent(boolean leftSide, boolean entering, Vector p, double ar,
-			boolean reflector) {
+	// the surface slope dx/dy at world point px,py
 
-		Vector rp = p.translate(-values.xPos, -values.yPos).rotate(-ar);
-		// parent.p("tangentA: left: " + leftSide + ", angle: " + ar *
+	double tangent(boolean leftSide, boolean entering, double px, double py) {
+		SurfaceGeometry sg = surface(leftSide);
+		// the y of the point in the lens frame
+		double ry = (py - sg.yPos) * sg.cosNegAngle + (px - sg.xPos)
+				* sg.sinNegAngle;
+		// parent.p("tangentA: left: " + leftSide + ", angle: " + angleRadians *
 		// Common.degrees);
-		double dx = getElement(leftSide).lensProfileDXforY(this, leftSide,
-				entering, rp.y);
+		double dx = sg.profileDX(entering, ry);
 		// double sr = this.sphereRadius(leftSide);
 		// Complex r = new Complex(dx/sr,sr).rotate(ar);
 		// p.rotate(ar);
@@ -521,25 +728,28 @@ final public class OpticalComponent {
 		return dx;
 	}
 
-	void drawLens(Graphics2D g) {
-		// solve subtle bug caused by user changes to this value
-		if(localSurfaceEpsilon != parent.programValues.surfEpsilon) {
-			reconfigure();
-		}
+	// draws the component in the colors of the drawing computer's
+	// program values, a snapshot component never needs to be
+	// reconfigured here, as a change of surfEpsilon replaces it
+
+	void drawLens(Graphics2D g, RayTraceComputer rayTraceComputer,
+			boolean selected) {
+		ProgramValues pv = rayTraceComputer.programValues;
 		Polygon p = new Polygon();
-		int col = programValues.colorLensOutline;
-		boolean selected = parent.selectedComponent != null
-				&& parent.selectedComponent == this;
+		int col = pv.colorLensOutline;
 		if (selected) {
-			col = programValues.colorLensSelected;
+			col = pv.colorLensSelected;
 		} else if (!values.active) {
-			col = programValues.colorGrid;
+			col = pv.colorGrid;
 		}
 		MyColor cc = new MyColor(col, 255);
 		g.setColor(cc);
 		boolean drawing = false;
 		ComplexInt i = new ComplexInt();
-		for (Vector pt : objectDrawingImage) {
+		double pixelsPerUnit = pv.dispScale * rayTraceComputer.ySize;
+		for (Vector lp : drawingOutline(pixelsPerUnit)) {
+			Vector pt = lp.rotate(cosAngle, sinAngle).translate(values.xPos,
+					values.yPos);
 			rayTraceComputer.drawScaledLine(pt.x, pt.y, i, g, drawing);
 			rayTraceComputer.addToPolygon(p, pt.x, pt.y);
 			drawing = true;
@@ -549,11 +759,85 @@ final public class OpticalComponent {
 		g.fillPolygon(p);
 	}
 
+	// the lens frame outline with no more vertices than the display
+	// needs: zoom bands are powers of two in pixels per unit, and an
+	// outline is made for the top of its band so that it stays within
+	// outlineTolerance anywhere in the band -- the vertex order
+	// is that of createObjectPerimeter()
+
+	ArrayList<Vector> drawingOutline(double pixelsPerUnit) {
+		int band = (int) ceil(log(pixelsPerUnit) / log(2));
+		Outline[] outlines = shape.outlines;
+		for (Outline o : outlines) {
+			if (o.band == band) {
+				return o.points;
+			}
+		}
+		// made for this band, ahead of those drawn before
+		double tolerance = outlineTolerance / pow(2, band);
+		ArrayList<Vector> left = new ArrayList<>();
+		ArrayList<Vector> right = new ArrayList<>();
+		tessellate(true, tolerance, left);
+		tessellate(false, tolerance, right);
+		Collections.reverse(right);
+		ArrayList<Vector> points = new ArrayList<>();
+		points.add(right.get(right.size() - 1));
+		points.addAll(left);
+		points.addAll(right);
+		Outline[] recent = new Outline[min(outlines.length + 1,
+				outlineBands)];
+		recent[0] = new Outline(band, points);
+		System.arraycopy(outlines, 0, recent, 1, recent.length - 1);
+		shape.outlines = recent;
+		return points;
+	}
+
+	// one side's profile in the lens frame from -lensRadius to
+	// lensRadius, each of the starting segments is split while its
+	// midpoint lies farther than tolerance from the chord, but never
+	// more finely than the drawCount segments of the test polygon
+
+	void tessellate(boolean leftSide, double tolerance,
+			ArrayList<Vector> points) {
+		double lr = values.lensRadius;
+		double least = 2 * lr / (int) drawCount;
+		double step = 2 * lr / outlineSegments;
+		Vector a = sidePoint(leftSide, -lr);
+		points.add(a);
+		for (int i = 1; i <= outlineSegments; i++) {
+			Vector b = sidePoint(leftSide, (i == outlineSegments) ? lr : -lr
+					+ i * step);
+			subdivide(leftSide, a, b, tolerance, least, points);
+			a = b;
+		}
+	}
+
+	// adds the points after a up to and including b
+
+	void subdivide(boolean leftSide, Vector a, Vector b, double tolerance,
+			double least, ArrayList<Vector> points) {
+		if (b.y - a.y > least) {
+			Vector m = sidePoint(leftSide, (a.y + b.y) / 2);
+			double d = Common.distanceToLine(m.x, m.y, a.x, a.y, b.x, b.y);
+			if (!(d <= tolerance)) {
+				subdivide(leftSide, a, m, tolerance, least, points);
+				subdivide(leftSide, m, b, tolerance, least, points);
+				return;
+			}
+		}
+		points.add(b);
+	}
+
+	Vector sidePoint(boolean leftSide, double y) {
+		Vector p = lensXforY(y, 0);
+		return new Vector((leftSide) ? p.x : p.y, y);
+	}
+
 	Vector lensXforY(double y, double ccx) {
 		// left
-		double a = getElement(true).lensProfileXforY(this, true, y, ccx);
+		double a = leftGeometry.profileX(y, ccx);
 		// right
-		double b = getElement(false).lensProfileXforY(this, false, y, ccx);
+		double b = rightGeometry.profileX(y, ccx);
 		return new Vector(a, b);
 	}
 
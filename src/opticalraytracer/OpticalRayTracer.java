@@ -43,8 +43,14 @@ import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -108,6 +114,8 @@ final public class OpticalRayTracer {
 	OpticalComponent mouseTarget = null;
 	OpticalComponent selectedComponent = null;
 	ArrayList<OpticalComponent> componentList;
+	// the scene as last traced
+	SceneSnapshot sceneSnapshot = null;
 	HashSet<String> componentNames;
 	double mousePressX, mousePressY;
 	int popupMouseX = -1;
@@ -181,11 +189,14 @@ final public class OpticalRayTracer {
 	private JPanel tablePane;
 
 	private JPanel tableControlPane;
-	private JTextField lineLimitTextField;
 	JLabel tableDataLabel;
+	JComboBox<String> tableEventComboBox, tableDestinationComboBox;
 	private JButton btnCopyHtml;
 	private JLabel lblSpaceBoxLimit;
 	private JTextField spaceBoxLimitTextField;
+	private JTextField traceThreadsTextField;
+	private JCheckBox sequentialCheckBox;
+	private JTextField surfaceOrderTextField;
 	private JPanel helpPane;
 	private JLabel lblEffectiveThickness;
 	JTextField internalThicknessTextField;
@@ -278,15 +289,30 @@ final public class OpticalRayTracer {
 				.getResource("/opticalraytracer/icons/text-html.png")));
 		tableControlPane.add(btnCopyHtml, "cell 1 0");
 
-		JLabel lblNewLabel_2 = new JLabel("Line limit:");
-		tableControlPane.add(lblNewLabel_2, "cell 2 0,alignx trailing");
+		tableEventComboBox = new JComboBox<String>();
+		tableEventComboBox.addItem(DataTableDisplay.anyEvent);
+		for (String s : RayBatch.eventNames) {
+			tableEventComboBox.addItem(s);
+		}
+		tableEventComboBox
+				.setToolTipText("Show only the lines that end with this event");
+		tableEventComboBox.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				dataTableDisplay.filterChanged();
+			}
+		});
+		tableControlPane.add(tableEventComboBox, "cell 2 0");
 
-		lineLimitTextField = new JTextField();
-		lineLimitTextField.setHorizontalAlignment(SwingConstants.RIGHT);
-		lineLimitTextField
-				.setToolTipText("A limit to the number of displayed lines (to prevent slow operation).");
-		tableControlPane.add(lineLimitTextField, "cell 3 0");
-		lineLimitTextField.setColumns(10);
+		tableDestinationComboBox = new JComboBox<String>();
+		tableDestinationComboBox.addItem(DataTableDisplay.anyDestination);
+		tableDestinationComboBox
+				.setToolTipText("<html>Show only the lines that end at this component<br/>(click a column heading to sort by it)");
+		tableDestinationComboBox.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				dataTableDisplay.filterChanged();
+			}
+		});
+		tableControlPane.add(tableDestinationComboBox, "cell 3 0");
 
 		tableDataLabel = new JLabel("");
 		tableControlPane.add(tableDataLabel, "flowx,cell 4 0");
@@ -355,11 +381,15 @@ final public class OpticalRayTracer {
 				break;
 			// emit html table to output stream
 			case "-h":
-				data = lineAnalysis.makeHTMLTable(true);
+				writeTable(true);
 				break;
 			// emit tab-separated field table to output stream
 			case "-t":
-				data = lineAnalysis.makeCSVTable();
+				writeTable(false);
+				break;
+			// emit binary trace file to output stream
+			case "-b":
+				writeTraceFile();
 				break;
 			// "quit" : exit OpticalRayTracer
 			case "-q":
@@ -377,6 +407,42 @@ final public class OpticalRayTracer {
 		}
 	}
 
+	// the table is written to the output stream as the rays are
+	// traced, so that its size isn't limited by memory
+
+	void writeTable(boolean html) {
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+		try {
+			if (html) {
+				lineAnalysis.writeHTMLTable(out, true);
+			} else {
+				lineAnalysis.writeCSVTable(out);
+			}
+			out.write(lineSep);
+			out.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// the trace in the binary format TraceFile reads, written to the
+	// output stream as the rays are traced
+
+	void writeTraceFile() {
+		System.out.flush();
+		FileChannel channel = new FileOutputStream(FileDescriptor.out)
+				.getChannel();
+		try {
+			TraceEngine engine = rayTraceComputer.sceneEngine();
+			TraceFile.Writer out = new TraceFile.Writer(channel,
+					engine.sceneHash(), engine.componentList);
+			engine.trace(out);
+			out.finish();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	void setupOpticalControlFields() {
 		ControlManager[] array = new ControlManager[] {
 				// The tag names must correspond to declared field names
@@ -453,14 +519,16 @@ final public class OpticalRayTracer {
 						beamOffsetTextField, this, "beamAngle"),
 				new ControlManager(textFieldIntSensitivity, 0, 1000,
 						dispersionCountTextField, this, "dispersionBeams"),
-				new ControlManager(textFieldIntSensitivity, 0, 50000,
-						lineLimitTextField, this, "tableLineLimit"),
+				new ControlManager(textFieldIntSensitivity, 0, 1024,
+						traceThreadsTextField, this, "traceThreads"),
 				new ControlManager(inverseCheckBox, this, "inverse"),
 				new ControlManager(gridCheckBox, this, "showGrid"),
 				new ControlManager(antiAliasCheckBox, this, "antialias"),
 				new ControlManager(showControlsCheckBox, this, "showControls"),
 				new ControlManager(divergingBeamsCheckBox, this,
-						"divergingSource") };
+						"divergingSource"),
+				new ControlManager(sequentialCheckBox, this, "sequentialMode"),
+				new ControlManager(surfaceOrderTextField, this, "surfaceOrder") };
 		// new ControlManager(rotateFromXCheckBox, this, "rotXZero"), };
 
 		for (ControlManager cm : array) {
@@ -570,6 +638,15 @@ final public class OpticalRayTracer {
 		gPaneConfigure.updateDisplay();
 	}
 
+	// a consistent copy of the scene for one trace, sharing
+	// the unchanged components with the previous one
+
+	SceneSnapshot sceneSnapshot() {
+		sceneSnapshot = SceneSnapshot.take(programValues, componentList,
+				sceneSnapshot);
+		return sceneSnapshot;
+	}
+
 	void enableComponentControls(boolean enabled) {
 		for (ControlManager cm : objectControlList.values()) {
 			cm.enable(enabled);
@@ -1566,7 +1643,7 @@ final public class OpticalRayTracer {
 		JPanel programControlPane = new JPanel();
 		controlBox.add(programControlPane, BorderLayout.CENTER);
 		programControlPane.setLayout(new MigLayout("",
-				"[][grow][][grow][][grow][][]", "[][][][][]"));
+				"[][grow][][grow][][grow][][]", "[][][][][][][]"));
 
 		JLabel lblIntersectionDotSize = new JLabel("Insersection arrow size");
 		programControlPane.add(lblIntersectionDotSize,
@@ -1699,6 +1776,29 @@ final public class OpticalRayTracer {
 		divergingBeamsCheckBox = new JCheckBox("Diverging beams");
 		programControlPane.add(divergingBeamsCheckBox, "cell 4 4 2 1");
 
+		JLabel lblTraceThreads = new JLabel("Trace threads");
+		programControlPane.add(lblTraceThreads, "cell 0 5,alignx trailing");
+
+		traceThreadsTextField = new JTextField();
+		traceThreadsTextField
+				.setToolTipText("<html>The number of processor threads used to trace rays<br/>(0 = all available processors)");
+		traceThreadsTextField.setHorizontalAlignment(SwingConstants.RIGHT);
+		traceThreadsTextField.setColumns(10);
+		programControlPane.add(traceThreadsTextField, "cell 1 5");
+
+		sequentialCheckBox = new JCheckBox("Sequential trace");
+		sequentialCheckBox
+				.setToolTipText("<html>Trace each ray through the components in the surface order,<br/>searching all components only after a miss or a reflection");
+		programControlPane.add(sequentialCheckBox, "cell 2 5 2 1");
+
+		JLabel lblSurfaceOrder = new JLabel("Surface order");
+		programControlPane.add(lblSurfaceOrder, "cell 0 6,alignx trailing");
+
+		surfaceOrderTextField = new JTextField();
+		surfaceOrderTextField
+				.setToolTipText("<html>Component names in sequential trace order, separated by commas<br/>(empty = the order the components were created)");
+		programControlPane.add(surfaceOrderTextField, "cell 1 6 5 1,growx");
+
 		tablePane = new JPanel();
 		tablePane.setBackground(Color.WHITE);
 		tabbedPane
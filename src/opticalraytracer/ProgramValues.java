@@ -65,5 +65,20 @@ final public class ProgramValues extends ValueManager {
     boolean askBeforeDeleting = true;
     int clipboardGraphicXSize = 1280;
     int helpScrollPos = 0;
-    int tableLineLimit = 500;
+    // 0 = trace with all available processors
+    int traceThreads = 0;
+    // search scenes with at least this many components
+    // through a ComponentTree, 0 = never
+    int componentTreeThreshold = 8;
+    // trace each ray through the components in surfaceOrder
+    boolean sequentialMode = false;
+    // comma-separated component names, empty = list order
+    String surfaceOrder = "";
+    // while the display is dragged or zoomed, trace at most
+    // interactiveBeamCount rays without dispersion, with at most
+    // interactiveMaxIntersections interactions, until the mouse is
+    // released or idle for interactiveIdleMs, 0 rays = full quality
+    int interactiveBeamCount = 32;
+    int interactiveMaxIntersections = 16;
+    int interactiveIdleMs = 250;
 }
@@ -0,0 +1,269 @@
+/***************************************************************************
+ *   Copyright (C) 2014 by Paul Lutus                                      *
+ *   lutusp@arachnoid.com                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+
+package opticalraytracer;
+
+import static java.lang.Math.*;
+
+import java.util.Arrays;
+
+// A block of rays held as primitive columns rather than as Vector
+// objects, so TraceEngine.traceBatch() can advance every live
+// ray one interaction at a time in plain loops over arrays.
+
+final public class RayBatch {
+	// interaction events, indices into eventNames
+	static final int BEAM_ORIGIN = 0;
+	static final int REFRACTION = 1;
+	static final int REFLECTION = 2;
+	static final int INTERNAL_REFLECTION = 3;
+	static final int ABSORPTION = 4;
+	static final int TERMINATION = 5;
+	static final int INTERACTION_LIMIT = 6;
+	static final String[] eventNames = new String[] { "Beam Origin",
+			"Refraction", "Reflection", "Internal Reflection", "Absorption",
+			"Termination", "Maximum Interaction Limit" };
+
+	final int capacity;
+	int size = 0;
+	// work item of each ray, which encodes its ray and dbeam numbers
+	final int[] item;
+	// the current segment runs from a through b and beyond
+	final double[] ax, ay, bx, by;
+	final double[] wavelength;
+	// index of the medium the ray travels in
+	final double[] ior;
+	// true if the next surface leads from air into a medium
+	final boolean[] entering;
+	// interactions so far
+	final int[] bounces;
+	// the event that began the current segment
+	final int[] event;
+	// list positions of the components of the previous
+	// and the latest interactions, -1 for none
+	final int[] fromLens, toLens;
+	// position in the surface sequence, -1 if searched normally
+	final int[] next;
+	// nearest hit of the current interaction, hitLens -1 for none
+	final int[] hitLens;
+	final boolean[] hitLeft;
+	final double[] hitX, hitY, hitM;
+	// position of the hit in a linear scan, breaks range ties
+	final int[] hitRank;
+	// the rays still being traced
+	final int[] live;
+	int liveCount = 0;
+	// rays without a hit after the sequential pass
+	final int[] search;
+	int searchCount = 0;
+	// minimum squared range of an acceptable hit
+	double epsilon;
+	// the rays a surface is solved for, and their candidate
+	// points, MAX_POINTS rows of capacity lanes
+	final int[] lanes;
+	final double[] pointX, pointY;
+	// per-lane scratch columns for the element batch routines
+	final double[] u, v, w, rm, rp;
+	// candidates of a single ray, as x,y pairs
+	final double[] pairs = new double[ElementBase.MAX_POINTS * 2];
+
+	RayBatch(int capacity) {
+		this.capacity = capacity;
+		item = new int[capacity];
+		ax = new double[capacity];
+		ay = new double[capacity];
+		bx = new double[capacity];
+		by = new double[capacity];
+		wavelength = new double[capacity];
+		ior = new double[capacity];
+		entering = new boolean[capacity];
+		bounces = new int[capacity];
+		event = new int[capacity];
+		fromLens = new int[capacity];
+		toLens = new int[capacity];
+		next = new int[capacity];
+		hitLens = new int[capacity];
+		hitLeft = new boolean[capacity];
+		hitX = new double[capacity];
+		hitY = new double[capacity];
+		hitM = new double[capacity];
+		hitRank = new int[capacity];
+		live = new int[capacity];
+		search = new int[capacity];
+		lanes = new int[capacity];
+		pointX = new double[ElementBase.MAX_POINTS * capacity];
+		pointY = new double[ElementBase.MAX_POINTS * capacity];
+		u = new double[capacity];
+		v = new double[capacity];
+		w = new double[capacity];
+		rm = new double[capacity];
+		rp = new double[capacity];
+	}
+
+	void clear() {
+		size = 0;
+		liveCount = 0;
+		searchCount = 0;
+	}
+
+	// adds a ray leaving the source in open air
+
+	void add(int n, double x1, double y1, double x2, double y2, double wvl,
+			boolean sequential) {
+		int i = size++;
+		item[i] = n;
+		ax[i] = x1;
+		ay[i] = y1;
+		bx[i] = x2;
+		by[i] = y2;
+		wavelength[i] = wvl;
+		ior[i] = 1.0;
+		entering[i] = true;
+		bounces[i] = 0;
+		event[i] = BEAM_ORIGIN;
+		fromLens[i] = -1;
+		toLens[i] = -1;
+		next[i] = (sequential) ? 0 : -1;
+		live[liveCount++] = i;
+	}
+
+	// forget the previous interaction's hits
+
+	void clearHits() {
+		Arrays.fill(hitLens, 0, size, -1);
+		Arrays.fill(hitM, 0, size, Double.POSITIVE_INFINITY);
+		Arrays.fill(hitRank, 0, size, Integer.MAX_VALUE);
+	}
+
+	// offers ray i the intersections of both surfaces of a component,
+	// index is its position in the component list
+
+	void offerComponent(int i, OpticalComponent oc, int index, double[] points) {
+		double x1 = ax[i], y1 = ay[i], x2 = bx[i], y2 = by[i];
+		// skip the surface solutions when the ray
+		// can't reach the component
+		if (oc.values.active && oc.rayMayHit(x1, y1, x2, y2)) {
+			for (int s = 0; s <= 1; s++) {
+				int count = oc.computeIntersections(s == 0, x1, y1, x2, y2,
+						points);
+				for (int n = 0; n < count; n++) {
+					offer(i, oc, index, s == 0, points[n * 2],
+							points[n * 2 + 1],
+							(index * 2 + s) * ElementBase.MAX_POINTS + n);
+				}
+			}
+		}
+	}
+
+	// offers every ray in search the intersections of both surfaces
+	// of a component, each surface solved for all the rays at once
+
+	void searchComponent(OpticalComponent oc, int index) {
+		if (!oc.values.active) {
+			return;
+		}
+		// skip the surface solutions for rays
+		// that can't reach the component
+		int count = 0;
+		for (int k = 0; k < searchCount; k++) {
+			int i = search[k];
+			if (oc.rayMayHit(ax[i], ay[i], bx[i], by[i])) {
+				lanes[count++] = i;
+			}
+		}
+		if (count == 0) {
+			return;
+		}
+		for (int s = 0; s <= 1; s++) {
+			int candidates = oc.surface(s == 0).intersections(this, count);
+			for (int j = 0; j < candidates; j++) {
+				int row = j * capacity;
+				int rank = (index * 2 + s) * ElementBase.MAX_POINTS + j;
+				for (int k = 0; k < count; k++) {
+					offer(lanes[k], oc, index, s == 0, pointX[row + k],
+							pointY[row + k], rank);
+				}
+			}
+		}
+	}
+
+	// the batch intersections of an element without its own,
+	// solving one lane at a time
+
+	int eachLane(SurfaceGeometry sg, int count) {
+		int candidates = 0;
+		for (int k = 0; k < count; k++) {
+			candidates = max(candidates, solveLane(sg, k));
+		}
+		return candidates;
+	}
+
+	// the scalar intersections for lane k, unused rows are NaN
+
+	int solveLane(SurfaceGeometry sg, int k) {
+		int i = lanes[k];
+		int n = sg.intersections(ax[i], ay[i], bx[i], by[i], pairs);
+		for (int j = 0; j < ElementBase.MAX_POINTS; j++) {
+			int row = j * capacity;
+			pointX[row + k] = (j < n) ? pairs[j * 2] : Double.NaN;
+			pointY[row + k] = (j < n) ? pairs[j * 2 + 1] : Double.NaN;
+		}
+		return n;
+	}
+
+	// accepts a candidate point for ray i if it lies ahead of the
+	// ray, beyond epsilon, nearer than the ray's current hit and
+	// within the lens outline -- this matches NearestHit.offer()
+
+	void offer(int i, OpticalComponent oc, int index, boolean left,
+			double px, double py, int rank) {
+		double x1 = ax[i], y1 = ay[i];
+		double dx = px - x1;
+		double dy = py - y1;
+		// current direction by dot product
+		double d = dx * (bx[i] - x1) + dy * (by[i] - y1);
+		// squared magnitude
+		double mm = dx * dx + dy * dy;
+		double m = hitM[i];
+		if (d > 0 && mm > epsilon && (mm < m || (mm == m && rank < hitRank[i]))
+				&& oc.insideOptical(px, py)) {
+			hitLens[i] = index;
+			hitLeft[i] = left;
+			hitX[i] = px;
+			hitY[i] = py;
+			hitM[i] = mm;
+			hitRank[i] = rank;
+		}
+	}
+
+	// copies a single-ray search result into ray i
+
+	void store(int i, NearestHit hit) {
+		if (hit.found()) {
+			hitLens[i] = hit.index;
+			hitLeft[i] = hit.leftSide;
+			hitX[i] = hit.x;
+			hitY[i] = hit.y;
+			hitM[i] = hit.m;
+			hitRank[i] = hit.rank;
+		}
+	}
+}
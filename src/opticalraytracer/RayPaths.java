@@ -0,0 +1,178 @@
+/***************************************************************************
+ *   Copyright (C) 2014 by Paul Lutus                                      *
+ *   lutusp@arachnoid.com                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+
+package opticalraytracer;
+
+import static java.lang.Math.*;
+
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// The beams of one trace as world-space paths, so that drawing them
+// takes a few draw() calls per color instead of a setColor() and
+// drawLine() per segment. The rays are taken in rounds of consecutive
+// rays, with one path per color in each round, and the rounds are
+// drawn in order -- that keeps the overlap of the colors close to
+// the ray-by-ray drawing, and the paths small, as the rasterizer
+// slows down with very large shapes. The arrowhead positions are
+// kept as well, their size depends on the zoom. A view change only
+// transforms the paths, so they are kept with their trace.
+
+final public class RayPaths {
+	// about this many segments per round
+	static final int roundSegments = 8192;
+	// the trace these paths were built from
+	final SegmentStore results;
+	final int colors;
+	int rounds = 0;
+	// the path of each round and color, at round * colors + color
+	final ArrayList<Path2D.Double> beams = new ArrayList<>();
+	// arrowhead x, y and angle, sorted by round and color with the
+	// arrowheads of ray ends last in each round, the arrowheads of
+	// bucket round * (colors + 1) + color begin at arrowStart[bucket]
+	double[] arrowX, arrowY, arrowAngle;
+	int[] arrowStart;
+
+	RayPaths(SegmentStore results, int colors, double virtualSpaceSize) {
+		this.results = results;
+		this.colors = colors;
+		int items = results.items();
+		int segments = results.size();
+		int perRound = max(1, (int) ((long) roundSegments * items
+				/ max(segments, 1)));
+		rounds = max(1, (items + perRound - 1) / perRound);
+		for (int i = 0; i < rounds * colors; i++) {
+			beams.add(new Path2D.Double());
+		}
+		int buckets = rounds * (colors + 1);
+		// arrowheads in trace order, with their buckets
+		int count = segments + items;
+		double[] ax = new double[count];
+		double[] ay = new double[count];
+		double[] aa = new double[count];
+		int[] bucket = new int[count];
+		int n = 0;
+		double v = virtualSpaceSize;
+		SegmentStore s = results;
+		for (int item = 0; item < items; item++) {
+			int first = s.itemStart[item];
+			int last = s.itemStart[item + 1] - 1;
+			// none for an item a progressive trace hasn't reached
+			if (last < first) {
+				continue;
+			}
+			int round = item / perRound;
+			int c = min(s.dbeam[first], colors - 1);
+			Path2D.Double path = beams.get(round * colors + c);
+			double oldAngle = 0;
+			boolean open = false;
+			for (int k = first; k <= last; k++) {
+				double angle = atan2(s.by[k] - s.ay[k], s.bx[k] - s.ax[k]);
+				if (k == first) {
+					oldAngle = angle;
+				}
+				// the interaction limit ends a ray without marking its
+				// last departure point
+				if (s.toEvent[k] != RayBatch.INTERACTION_LIMIT) {
+					ax[n] = s.ax[k];
+					ay[n] = s.ay[k];
+					aa[n] = oldAngle;
+					bucket[n++] = round * (colors + 1) + c;
+				}
+				if (valid(s.ax[k], s.ay[k]) && valid(s.bx[k], s.by[k])) {
+					// as drawScaledLine(), points outside
+					// the virtual space are clamped to it
+					if (!open) {
+						path.moveTo(max(min(s.ax[k], v), -v),
+								max(min(s.ay[k], v), -v));
+						open = true;
+					}
+					path.lineTo(max(min(s.bx[k], v), -v),
+							max(min(s.by[k], v), -v));
+				} else {
+					open = false;
+				}
+				oldAngle = angle;
+			}
+			ax[n] = s.bx[last];
+			ay[n] = s.by[last];
+			aa[n] = oldAngle;
+			bucket[n++] = round * (colors + 1) + colors;
+		}
+		// a counting sort by bucket
+		arrowStart = new int[buckets + 1];
+		for (int i = 0; i < n; i++) {
+			arrowStart[bucket[i] + 1]++;
+		}
+		for (int b = 0; b < buckets; b++) {
+			arrowStart[b + 1] += arrowStart[b];
+		}
+		int[] next = Arrays.copyOf(arrowStart, buckets);
+		arrowX = new double[n];
+		arrowY = new double[n];
+		arrowAngle = new double[n];
+		for (int i = 0; i < n; i++) {
+			int j = next[bucket[i]]++;
+			arrowX[j] = ax[i];
+			arrowY[j] = ay[i];
+			arrowAngle[j] = aa[i];
+		}
+	}
+
+	Path2D.Double beam(int round, int color) {
+		return beams.get(round * colors + color);
+	}
+
+	// the arrowheads of one round and color, color == colors
+	// for the arrowheads at the ray ends
+
+	Path2D.Double arrowheads(int round, int color, double radius,
+			Vector[] arrowLines) {
+		Path2D.Double path = new Path2D.Double();
+		int b = round * (colors + 1) + color;
+		for (int i = arrowStart[b]; i < arrowStart[b + 1]; i++) {
+			double x = arrowX[i];
+			double y = arrowY[i];
+			if (Double.isNaN(x) || Double.isNaN(y)) {
+				continue;
+			}
+			double a = arrowAngle[i];
+			double ca = cos(a), sa = sin(a);
+			for (int k = 0; k < arrowLines.length; k++) {
+				Vector op = arrowLines[k];
+				double px = op.x * radius * ca - op.y * radius * sa + x;
+				double py = op.y * radius * ca + op.x * radius * sa + y;
+				if (k == 0) {
+					path.moveTo(px, py);
+				} else {
+					path.lineTo(px, py);
+				}
+			}
+			path.closePath();
+		}
+		return path;
+	}
+
+	static boolean valid(double x, double y) {
+		return !Double.isNaN(x) && !Double.isNaN(y);
+	}
+}
@@ -0,0 +1,191 @@
+/***************************************************************************
+ *   Copyright (C) 2014 by Paul Lutus                                      *
+ *   lutusp@arachnoid.com                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+
+package opticalraytracer;
+
+import static java.lang.Math.*;
+
+import java.awt.Color;
+import java.awt.EventQueue;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+// This thread draws a GraphicDisplay's images so that tracing never
+// holds up the event dispatch thread. Only the latest request is
+// kept -- a newer one replaces any request still waiting and
+// cancels the trace in progress -- and each finished image is
+// handed to the display on the event dispatch thread.
+//
+// A scene is drawn progressively: the first image shows as many
+// of the trace passes as fit in frameBudget, going by the time per
+// ray of earlier images, and the later passes follow until the trace
+// is complete. A new request restarts from the first pass.
+
+final public class RenderWorker extends Thread {
+
+	// everything one image depends on
+
+	static final class Request {
+		final SceneSnapshot scene;
+		final int width, height;
+		final Color background;
+		final int selected;
+
+		Request(SceneSnapshot scene, int width, int height,
+				Color background, int selected) {
+			this.scene = scene;
+			this.width = width;
+			this.height = height;
+			this.background = background;
+			this.selected = selected;
+		}
+
+		// true if this request would draw the same image as r
+		boolean sameAs(Request r) {
+			return r != null && scene == r.scene && width == r.width
+					&& height == r.height && background.equals(r.background)
+					&& selected == r.selected;
+		}
+	}
+
+	GraphicDisplay display;
+	// the worker's own engine, so its trace can be cancelled
+	// without touching the engine of the live scene
+	TraceEngine traceEngine = new TraceEngine();
+	// kept from frame to frame for what it caches
+	RayTraceComputer rayTraceComputer = new RayTraceComputer(traceEngine);
+	// reduced-quality scenes have an engine of their own, so that
+	// the full trace cached by the other survives an interaction
+	TraceEngine interactiveEngine = new TraceEngine();
+	RayTraceComputer interactiveComputer = new RayTraceComputer(
+			interactiveEngine);
+	private Request pending = null;
+	private boolean rendering = false;
+	// the time the first image of a request may take
+	static final long frameBudget = 50000000L;
+	// nanoseconds per work item traced, for the trace and the drawing
+	// of an image, measured as images are made, pessimistic until then
+	double itemNanos = 1e6;
+
+	public RenderWorker(GraphicDisplay display) {
+		super("render " + display.name);
+		this.display = display;
+		setDaemon(true);
+	}
+
+	// queue r as the next image to draw
+
+	synchronized void request(Request r) {
+		pending = r;
+		if (rendering) {
+			traceEngine.cancel();
+			interactiveEngine.cancel();
+		}
+		notify();
+	}
+
+	private synchronized Request next() throws InterruptedException {
+		rendering = false;
+		while (pending == null) {
+			wait();
+		}
+		Request r = pending;
+		pending = null;
+		traceEngine.cancelled = false;
+		interactiveEngine.cancelled = false;
+		rendering = true;
+		return r;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			final Request r;
+			try {
+				r = next();
+			} catch (InterruptedException e) {
+				return;
+			}
+			RayTraceComputer rtc = (r.scene.interactive) ? interactiveComputer
+					: rayTraceComputer;
+			TraceEngine engine = rtc.traceEngine;
+			try {
+				int pass = firstPass(r, engine);
+				while (true) {
+					rtc.tracePass = pass;
+					long start = System.nanoTime();
+					final BufferedImage image = render(r, rtc);
+					if (image == null) {
+						// cancelled by a newer request
+						break;
+					}
+					// an image drawn from the cached trace traces
+					// nothing, and would make the next trace look
+					// as cheap as drawing
+					if (engine.tracedItems > 0) {
+						itemNanos = (System.nanoTime() - start)
+								/ (double) engine.tracedItems;
+					}
+					EventQueue.invokeLater(new Runnable() {
+						public void run() {
+							display.showImage(image);
+						}
+					});
+					if (engine.complete || pass >= TraceEngine.fullPass
+							|| hasPending()) {
+						break;
+					}
+					pass++;
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private synchronized boolean hasPending() {
+		return pending != null;
+	}
+
+	// the last pass whose items are expected to be drawn within
+	// frameBudget, or the first pass if none is
+
+	int firstPass(Request r, TraceEngine engine) {
+		engine.setScene(r.scene);
+		int pass = TraceEngine.fullPass;
+		while (pass > 0 && engine.passItems(pass) * itemNanos > frameBudget) {
+			pass--;
+		}
+		return pass;
+	}
+
+	// draws r into a new image, or returns null if cancelled
+
+	static BufferedImage render(Request r, RayTraceComputer rtc) {
+		BufferedImage image = new BufferedImage(r.width, r.height,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D bg = image.createGraphics();
+		rtc.setView(r.scene, r.width, r.height, r.selected);
+		boolean done = rtc.drawScene(bg, r.background);
+		bg.dispose();
+		return (done) ? image : null;
+	}
+}
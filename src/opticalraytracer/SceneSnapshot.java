@@ -0,0 +1,168 @@
+/***************************************************************************
+ *   Copyright (C) 2014 by Paul Lutus                                      *
+ *   lutusp@arachnoid.com                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+
+package opticalraytracer;
+
+import static java.lang.Math.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+// An immutable copy of the scene, program values and components.
+// A trace runs against one snapshot while the user interface goes
+// on editing the live values in place, and each edit is picked up
+// by the next snapshot as a new version. Components whose values
+// haven't changed are shared with the previous version, so taking
+// a snapshot of a large scene costs little more than comparing it.
+
+final public class SceneSnapshot {
+	// increases with each snapshot that differs from the last
+	final long version;
+	final ProgramValues programValues;
+	// components built from copies of the values, don't modify
+	final ArrayList<OpticalComponent> components;
+	// the live component each one was copied from, if any
+	private final OpticalComponent[] sources;
+	// true for the reduced-quality version of a snapshot
+	final boolean interactive;
+	// the reduced-quality version, made when first needed
+	private SceneSnapshot reduced = null;
+
+	private SceneSnapshot(long version, ProgramValues programValues,
+			ArrayList<OpticalComponent> components, OpticalComponent[] sources) {
+		this(version, programValues, components, sources, false);
+	}
+
+	private SceneSnapshot(long version, ProgramValues programValues,
+			ArrayList<OpticalComponent> components,
+			OpticalComponent[] sources, boolean interactive) {
+		this.version = version;
+		this.programValues = programValues;
+		this.components = components;
+		this.sources = sources;
+		this.interactive = interactive;
+	}
+
+	// this scene with the interaction quality policy of its program
+	// values applied, or this snapshot if the policy changes nothing
+
+	SceneSnapshot interactive() {
+		ProgramValues pv = programValues;
+		int rays = min(pv.beamCount, pv.interactiveBeamCount);
+		int limit = min(pv.maxIntersections,
+				max(pv.interactiveMaxIntersections, 1));
+		if (interactive
+				|| pv.interactiveBeamCount <= 0
+				|| (rays == pv.beamCount && pv.dispersionBeams == 0 && limit == pv.maxIntersections)) {
+			return this;
+		}
+		if (reduced == null) {
+			ProgramValues rv = copy(pv);
+			rv.beamCount = rays;
+			rv.dispersionBeams = 0;
+			rv.maxIntersections = limit;
+			reduced = new SceneSnapshot(version, rv, components, sources,
+					true);
+		}
+		return reduced;
+	}
+
+	// a snapshot of bare values, which can be taken
+	// without any user interface
+
+	public static SceneSnapshot fromValues(ProgramValues values,
+			List<ObjectValues> objects) {
+		ProgramValues pv = copy(values);
+		ArrayList<OpticalComponent> list = new ArrayList<>();
+		for (ObjectValues ov : objects) {
+			list.add(new OpticalComponent(pv, copy(ov)));
+		}
+		return new SceneSnapshot(0, pv, list, new OpticalComponent[list.size()]);
+	}
+
+	// a snapshot of the live scene, previous may be null -- if
+	// nothing has changed since previous, previous is returned
+
+	static SceneSnapshot take(ProgramValues values,
+			List<OpticalComponent> live, SceneSnapshot previous) {
+		boolean sameProgram = previous != null
+				&& values.sameValues(previous.programValues);
+		ProgramValues pv = (sameProgram) ? previous.programValues
+				: copy(values);
+		// the components depend on these two, the other
+		// program values only affect the trace
+		boolean share = previous != null
+				&& pv.surfEpsilon == previous.programValues.surfEpsilon
+				&& pv.virtualSpaceSize == previous.programValues.virtualSpaceSize;
+		boolean changed = !sameProgram
+				|| live.size() != previous.components.size();
+		int n = live.size();
+		ArrayList<OpticalComponent> list = new ArrayList<>(n);
+		OpticalComponent[] sources = new OpticalComponent[n];
+		IdentityHashMap<OpticalComponent, OpticalComponent> moved = null;
+		for (int i = 0; i < n; i++) {
+			OpticalComponent source = live.get(i);
+			OpticalComponent oc = null;
+			if (share) {
+				if (i < previous.sources.length
+						&& previous.sources[i] == source) {
+					oc = previous.components.get(i);
+				} else {
+					// components were added, deleted or reordered
+					changed = true;
+					if (moved == null) {
+						moved = new IdentityHashMap<>();
+						for (int j = 0; j < previous.sources.length; j++) {
+							moved.put(previous.sources[j],
+									previous.components.get(j));
+						}
+					}
+					oc = moved.get(source);
+				}
+			}
+			if (oc == null || !source.values.sameValues(oc.values)) {
+				// a moved component keeps the outlines of its source
+				oc = new OpticalComponent(pv, copy(source.values), source);
+				changed = true;
+			}
+			list.add(oc);
+			sources[i] = source;
+		}
+		if (!changed) {
+			return previous;
+		}
+		long version = (previous == null) ? 0 : previous.version + 1;
+		return new SceneSnapshot(version, pv, list, sources);
+	}
+
+	private static ProgramValues copy(ProgramValues values) {
+		ProgramValues pv = new ProgramValues();
+		pv.copyValues(values);
+		return pv;
+	}
+
+	private static ObjectValues copy(ObjectValues values) {
+		ObjectValues ov = new ObjectValues(values.name);
+		ov.copyValues(values);
+		return ov;
+	}
+}
@@ -0,0 +1,291 @@
+/***************************************************************************
+ *   Copyright (C) 2014 by Paul Lutus                                      *
+ *   lutusp@arachnoid.com                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+
+package opticalraytracer;
+
+import java.util.Arrays;
+
+// Indexes over the segments of a store, for filtering and sorting
+// the Table tab without formatting or retracing: a bitmap of the
+// segments that end at each component, and of those that end with
+// each event, and for each table column the permutation of the
+// segments that sorts them by it. The indexes are built when first
+// needed, after that a view -- the segments that pass a filter,
+// in a sort order -- takes a pass over a bitmap and a permutation.
+
+final public class SegmentIndex {
+	final SegmentStore store;
+	// a bitmap has a bit per segment
+	private final int words;
+	// bitmaps by toLens + 1, and by toEvent
+	private long[][] lensBits = null, eventBits = null;
+	// the ascending permutations by table column, and bitmaps of
+	// the positions in them whose key equals the one before
+	private final int[][] sorted;
+	private final long[][] ties;
+
+	SegmentIndex(SegmentStore store, int columns) {
+		this.store = store;
+		words = (store.size() + 63) >>> 6;
+		sorted = new int[columns][];
+		ties = new long[columns][];
+	}
+
+	// the destination labels a view can be filtered by, as
+	// SegmentStore.toLabel() gives them, without repeats
+
+	String[] destinations() {
+		int n = (store.components == null) ? 0 : store.components.size();
+		String[] labels = new String[n + 1];
+		for (int lens = -1; lens < n; lens++) {
+			labels[lens + 1] = destination(lens);
+		}
+		return distinct(labels);
+	}
+
+	private String destination(int lens) {
+		return (lens < 0) ? "Virtual space boundary" : store.components
+				.get(lens).values.name;
+	}
+
+	// the positions of the segments that end at destination (null
+	// for any) with event (-1 for any), ordered by table column
+	// (-1 for trace order, descending is then ignored), or null
+	// for all the segments in trace order -- segments with equal
+	// values are in trace order either way
+
+	int[] view(String destination, int event, int column, boolean descending) {
+		long[] mask = null;
+		if (destination != null || event >= 0) {
+			buildBitmaps();
+		}
+		if (destination != null) {
+			mask = new long[words];
+			for (int lens = -1; lens < lensBits.length - 1; lens++) {
+				if (destination.equals(destination(lens))) {
+					or(mask, lensBits[lens + 1]);
+				}
+			}
+		}
+		if (event >= 0) {
+			if (mask == null) {
+				mask = eventBits[event];
+			} else {
+				and(mask, eventBits[event]);
+			}
+		}
+		if (mask == null && column < 0) {
+			return null;
+		}
+		int size = store.size();
+		int count = (mask == null) ? size : count(mask);
+		int[] order = (column < 0) ? null : sorted(column);
+		int[] view = new int[count];
+		int k = 0;
+		if (order != null && descending) {
+			// the runs of equal values from the last,
+			// each run in ascending order
+			long[] tie = ties[column];
+			for (int end = size; end > 0 && k < count;) {
+				int start = end - 1;
+				while (start > 0 && (tie[start >>> 6] & (1L << start)) != 0) {
+					start--;
+				}
+				for (int p = start; p < end; p++) {
+					k = take(view, k, order[p], mask);
+				}
+				end = start;
+			}
+		} else {
+			for (int p = 0; p < size && k < count; p++) {
+				k = take(view, k, (order == null) ? p : order[p], mask);
+			}
+		}
+		return view;
+	}
+
+	// adds segment i to view at k if it passes mask,
+	// returns the next position
+
+	private static int take(int[] view, int k, int i, long[] mask) {
+		if (mask == null || (mask[i >>> 6] & (1L << i)) != 0) {
+			view[k++] = i;
+		}
+		return k;
+	}
+
+	private void buildBitmaps() {
+		if (lensBits != null) {
+			return;
+		}
+		int n = (store.components == null) ? 0 : store.components.size();
+		lensBits = new long[n + 1][words];
+		eventBits = new long[RayBatch.eventNames.length][words];
+		for (int i = 0; i < store.size(); i++) {
+			lensBits[store.toLens[i] + 1][i >>> 6] |= 1L << i;
+			eventBits[store.toEvent[i]][i >>> 6] |= 1L << i;
+		}
+	}
+
+	private static void or(long[] a, long[] b) {
+		for (int w = 0; w < a.length; w++) {
+			a[w] |= b[w];
+		}
+	}
+
+	private static void and(long[] a, long[] b) {
+		for (int w = 0; w < a.length; w++) {
+			a[w] &= b[w];
+		}
+	}
+
+	private static int count(long[] a) {
+		int n = 0;
+		for (long w : a) {
+			n += Long.bitCount(w);
+		}
+		return n;
+	}
+
+	// the permutation that sorts the segments by table column,
+	// segments with equal values stay in trace order -- the label
+	// columns sort by label, all the origin rays together
+
+	int[] sorted(int column) {
+		if (sorted[column] == null) {
+			int size = store.size();
+			double[] keys = new double[size];
+			switch (column) {
+			case 0:
+			case 1: {
+				double[] rank = ranks(RayBatch.eventNames);
+				byte[] event = (column == 0) ? store.fromEvent : store.toEvent;
+				for (int i = 0; i < size; i++) {
+					keys[i] = rank[event[i]];
+				}
+				break;
+			}
+			case 2:
+			case 3:
+			case 4: {
+				int n = (store.components == null) ? 0 : store.components.size();
+				String[] labels = new String[n + 1];
+				for (int lens = -1; lens < n; lens++) {
+					labels[lens + 1] = label(column, lens);
+				}
+				double[] rank = ranks(labels);
+				int[] lens = (column == 2) ? store.fromLens : store.toLens;
+				for (int i = 0; i < size; i++) {
+					keys[i] = rank[lens[i] + 1];
+				}
+				break;
+			}
+			default:
+				for (int i = 0; i < size; i++) {
+					keys[i] = store.numericValue(i, column - 5);
+				}
+			}
+			int[] order = new int[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			sort(order, keys);
+			long[] tie = new long[words];
+			for (int p = 1; p < size; p++) {
+				if (Double.compare(keys[order[p]], keys[order[p - 1]]) == 0) {
+					tie[p >>> 6] |= 1L << p;
+				}
+			}
+			sorted[column] = order;
+			ties[column] = tie;
+		}
+		return sorted[column];
+	}
+
+	// the label of a segment from or to lens in table column 2,
+	// 3 or 4, for sorting
+
+	private String label(int column, int lens) {
+		switch (column) {
+		case 2:
+			return (lens < 0) ? "Origin Ray" : destination(lens);
+		case 3:
+			return destination(lens);
+		default:
+			return (lens < 0) ? "Domain Limit" : Common.getObjectType(store.components
+					.get(lens).values.function);
+		}
+	}
+
+	// the position of each label in the sorted labels,
+	// equal labels share a position
+
+	private static double[] ranks(String[] labels) {
+		String[] names = distinct(labels);
+		double[] rank = new double[labels.length];
+		for (int k = 0; k < labels.length; k++) {
+			rank[k] = Arrays.binarySearch(names, labels[k]);
+		}
+		return rank;
+	}
+
+	private static String[] distinct(String[] labels) {
+		String[] names = labels.clone();
+		Arrays.sort(names);
+		int n = 0;
+		for (int k = 0; k < names.length; k++) {
+			if (n == 0 || !names[k].equals(names[n - 1])) {
+				names[n++] = names[k];
+			}
+		}
+		return Arrays.copyOf(names, n);
+	}
+
+	// a stable merge sort of order by keys, bottom up
+
+	private static void sort(int[] order, double[] keys) {
+		int size = order.length;
+		int[] a = order, b = new int[size];
+		for (int width = 1; width < size; width *= 2) {
+			for (int lo = 0; lo < size; lo += 2 * width) {
+				int mid = Math.min(lo + width, size);
+				int hi = Math.min(lo + 2 * width, size);
+				int i = lo, j = mid, k = lo;
+				while (i < mid && j < hi) {
+					b[k++] = (Double.compare(keys[a[j]], keys[a[i]]) < 0) ? a[j++]
+							: a[i++];
+				}
+				while (i < mid) {
+					b[k++] = a[i++];
+				}
+				while (j < hi) {
+					b[k++] = a[j++];
+				}
+			}
+			int[] t = a;
+			a = b;
+			b = t;
+		}
+		if (a != order) {
+			System.arraycopy(a, 0, order, 0, size);
+		}
+	}
+}
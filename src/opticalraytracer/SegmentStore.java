@@ -0,0 +1,238 @@
+/***************************************************************************
+ *   Copyright (C) 2014 by Paul Lutus                                      *
+ *   lutusp@arachnoid.com                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package opticalraytracer;
+
+import static java.lang.Math.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The segments of a trace in primitive columns, instead of an object
+// per segment. A segment refers to its components by their
+// position in the snapshot list and to its events by their RayBatch
+// codes, and its labels -- component names, event names and the
+// origin description -- are made only when they are displayed or
+// exported. A store made by merge() keeps its segments in work item
+// order, those of item n are at itemStart[n] .. itemStart[n + 1].
+
+final public class SegmentStore {
+	// the numeric columns of a segment, in the order of numericValues()
+	static final int numericColumns = 10;
+	// the components fromLens and toLens refer to, don't modify
+	final ArrayList<OpticalComponent> components;
+	int size = 0;
+	int[] ray, dbeam;
+	// component positions, -1 for the ray origin
+	// and the virtual space boundary
+	int[] fromLens, toLens;
+	// RayBatch event codes
+	byte[] fromEvent, toEvent;
+	// zero for a trace without dispersion
+	double[] wavelength;
+	double[] ax, ay, bx, by;
+	// radians
+	double[] surfaceAngle;
+	// set by merge()
+	int[] itemStart = null;
+
+	SegmentStore(ArrayList<OpticalComponent> components) {
+		this(components, 64);
+	}
+
+	SegmentStore(ArrayList<OpticalComponent> components, int capacity) {
+		this.components = components;
+		capacity = max(capacity, 1);
+		ray = new int[capacity];
+		dbeam = new int[capacity];
+		fromLens = new int[capacity];
+		toLens = new int[capacity];
+		fromEvent = new byte[capacity];
+		toEvent = new byte[capacity];
+		wavelength = new double[capacity];
+		ax = new double[capacity];
+		ay = new double[capacity];
+		bx = new double[capacity];
+		by = new double[capacity];
+		surfaceAngle = new double[capacity];
+	}
+
+	private void grow() {
+		int capacity = size * 2;
+		ray = Arrays.copyOf(ray, capacity);
+		dbeam = Arrays.copyOf(dbeam, capacity);
+		fromLens = Arrays.copyOf(fromLens, capacity);
+		toLens = Arrays.copyOf(toLens, capacity);
+		fromEvent = Arrays.copyOf(fromEvent, capacity);
+		toEvent = Arrays.copyOf(toEvent, capacity);
+		wavelength = Arrays.copyOf(wavelength, capacity);
+		ax = Arrays.copyOf(ax, capacity);
+		ay = Arrays.copyOf(ay, capacity);
+		bx = Arrays.copyOf(bx, capacity);
+		by = Arrays.copyOf(by, capacity);
+		surfaceAngle = Arrays.copyOf(surfaceAngle, capacity);
+	}
+
+	int size() {
+		return size;
+	}
+
+	// the number of work items of a merged store
+
+	int items() {
+		return itemStart.length - 1;
+	}
+
+	void add(int ray, int dbeam, double wavelength, int fromLens,
+			int toLens, double ax, double ay, double bx, double by,
+			double surfaceAngle, int fromEvent, int toEvent) {
+		if (size == this.ray.length) {
+			grow();
+		}
+		int i = size++;
+		this.ray[i] = ray;
+		this.dbeam[i] = dbeam;
+		this.wavelength[i] = wavelength;
+		this.fromLens[i] = fromLens;
+		this.toLens[i] = toLens;
+		this.ax[i] = ax;
+		this.ay[i] = ay;
+		this.bx[i] = bx;
+		this.by[i] = by;
+		this.surfaceAngle[i] = surfaceAngle;
+		this.fromEvent[i] = (byte) fromEvent;
+		this.toEvent[i] = (byte) toEvent;
+	}
+
+	// the segments of all the stores sorted by work item, item
+	// ray * dbeams + dbeam, keeping the order of each item's segments
+	// -- the stores hold items first .. first + items - 1, and an
+	// item's segments must all be in one of them, itemStart of the
+	// result is indexed from item first
+
+	static SegmentStore merge(List<SegmentStore> stores, int first,
+			int items, int dbeams, ArrayList<OpticalComponent> components) {
+		int[] start = new int[items + 1];
+		for (SegmentStore s : stores) {
+			for (int i = 0; i < s.size; i++) {
+				start[s.ray[i] * dbeams + s.dbeam[i] - first + 1]++;
+			}
+		}
+		for (int n = 0; n < items; n++) {
+			start[n + 1] += start[n];
+		}
+		SegmentStore result = new SegmentStore(components, start[items]);
+		int[] next = Arrays.copyOf(start, items);
+		result.size = start[items];
+		for (SegmentStore s : stores) {
+			for (int i = 0; i < s.size; i++) {
+				int k = next[s.ray[i] * dbeams + s.dbeam[i] - first]++;
+				result.copy(k, s, i);
+			}
+		}
+		result.itemStart = start;
+		return result;
+	}
+
+	private void copy(int k, SegmentStore s, int i) {
+		ray[k] = s.ray[i];
+		dbeam[k] = s.dbeam[i];
+		wavelength[k] = s.wavelength[i];
+		fromLens[k] = s.fromLens[i];
+		toLens[k] = s.toLens[i];
+		ax[k] = s.ax[i];
+		ay[k] = s.ay[i];
+		bx[k] = s.bx[i];
+		by[k] = s.by[i];
+		surfaceAngle[k] = s.surfaceAngle[i];
+		fromEvent[k] = s.fromEvent[i];
+		toEvent[k] = s.toEvent[i];
+	}
+
+	// the labels of segment i, made when asked for
+
+	String fromEventName(int i) {
+		return RayBatch.eventNames[fromEvent[i]];
+	}
+
+	String toEventName(int i) {
+		return RayBatch.eventNames[toEvent[i]];
+	}
+
+	String fromLabel(int i) {
+		if (fromLens[i] < 0) {
+			String s = String.format("Origin Ray %d", ray[i] + 1);
+			if (wavelength[i] != 0) {
+				s += String.format(" Dbeam %d", dbeam[i] + 1);
+			}
+			return s;
+		}
+		return components.get(fromLens[i]).values.name;
+	}
+
+	String toLabel(int i) {
+		return (toLens[i] < 0) ? "Virtual space boundary" : components
+				.get(toLens[i]).values.name;
+	}
+
+	String typeLabel(int i) {
+		return (toLens[i] < 0) ? "Domain Limit" : Common
+				.getObjectType(components.get(toLens[i]).values.function);
+	}
+
+	// numeric column k of segment i
+
+	double numericValue(int i, int k) {
+		double dx = bx[i] - ax[i];
+		double dy = by[i] - ay[i];
+		switch (k) {
+		case 0:
+			return ax[i];
+		case 1:
+			return ay[i];
+		case 2:
+			return bx[i];
+		case 3:
+			return by[i];
+		case 4:
+			return dx;
+		case 5:
+			return dy;
+		case 6:
+			return sqrt(dx * dx + dy * dy);
+		case 7:
+			return atan2(dy, dx) * Common.degrees;
+		case 8:
+			return surfaceAngle[i] * Common.degrees;
+		default:
+			return (wavelength[i] == 0) ? WavelengthColor.dispersionPivotNM
+					: wavelength[i];
+		}
+	}
+
+	// the numeric columns of segment i, into values
+
+	void numericValues(int i, double[] values) {
+		for (int k = 0; k < numericColumns; k++) {
+			values[k] = numericValue(i, k);
+		}
+	}
+}
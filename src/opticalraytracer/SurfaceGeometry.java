@@ -0,0 +1,134 @@
+/***************************************************************************
+ *   Copyright (C) 2014 by Paul Lutus                                      *
+ *   lutusp@arachnoid.com                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package opticalraytracer;
+
+import static java.lang.Math.*;
+
+// This class holds the constants for one side of an optical
+// component. An instance is created by OpticalComponent.reconfigure()
+// and never changes afterward, so any number of threads can trace
+// rays against it at once.
+
+final public class SurfaceGeometry {
+	final ElementBase element;
+	final boolean leftSide;
+	final double xPos, yPos;
+	final double angleRadians;
+	// the rotation and its inverse, computed once
+	final double cosAngle, sinAngle;
+	final double cosNegAngle, sinNegAngle;
+	final double thickness;
+	final double signedThickness;
+	final double lensRadius;
+	final double sphereRadius;
+	final double radiusSign;
+	final double scale;
+	final double signedScale;
+	final double zValue;
+	final boolean reflector;
+	// element-specific factors
+	final double m, b;
+	// element-specific limit for valid intersections
+	final double maxX;
+	// the surface's center of curvature frame origin, don't modify
+	final Vector center;
+
+	public SurfaceGeometry(ElementBase element, OpticalComponent oc,
+			boolean leftSide, double m, double b) {
+		this(element, leftSide, oc.xPos(), oc.yPos(), oc.angleRadians(), oc
+				.thickness(), oc.lensRadius(), oc.sphereRadius(leftSide), oc
+				.scale(leftSide), oc.zValue(leftSide), oc.isReflector(), m, b);
+	}
+
+	// a surface given by its values alone, the signed values
+	// are derived as OpticalComponent derives them
+
+	public SurfaceGeometry(ElementBase element, boolean leftSide,
+			double xPos, double yPos, double angleRadians, double thickness,
+			double lensRadius, double sphereRadius, double scale,
+			double zValue, boolean reflector, double m, double b) {
+		this.element = element;
+		this.leftSide = leftSide;
+		this.xPos = xPos;
+		this.yPos = yPos;
+		this.angleRadians = angleRadians;
+		cosAngle = cos(angleRadians);
+		sinAngle = sin(angleRadians);
+		cosNegAngle = cos(-angleRadians);
+		sinNegAngle = sin(-angleRadians);
+		this.thickness = thickness;
+		signedThickness = (leftSide) ? -thickness : thickness;
+		center = new Vector(xPos, yPos).translate(new Vector(
+				-signedThickness, 0).rotate(cosAngle, sinAngle));
+		this.lensRadius = lensRadius;
+		this.sphereRadius = sphereRadius;
+		radiusSign = (sphereRadius < 0) ? -1 : 1;
+		this.scale = scale;
+		signedScale = scale * radiusSign;
+		this.zValue = zValue;
+		this.reflector = reflector;
+		this.m = m;
+		this.b = b;
+		maxX = 0;
+	}
+
+	public SurfaceGeometry(SurfaceGeometry sg, double maxX) {
+		element = sg.element;
+		leftSide = sg.leftSide;
+		xPos = sg.xPos;
+		yPos = sg.yPos;
+		angleRadians = sg.angleRadians;
+		cosAngle = sg.cosAngle;
+		sinAngle = sg.sinAngle;
+		cosNegAngle = sg.cosNegAngle;
+		sinNegAngle = sg.sinNegAngle;
+		center = sg.center;
+		thickness = sg.thickness;
+		signedThickness = sg.signedThickness;
+		lensRadius = sg.lensRadius;
+		sphereRadius = sg.sphereRadius;
+		radiusSign = sg.radiusSign;
+		scale = sg.scale;
+		signedScale = sg.signedScale;
+		zValue = sg.zValue;
+		reflector = sg.reflector;
+		m = sg.m;
+		b = sg.b;
+		this.maxX = maxX;
+	}
+
+	int intersections(double x1, double y1, double x2, double y2,
+			double[] points) {
+		return element.intersections(this, x1, y1, x2, y2, points);
+	}
+
+	int intersections(RayBatch rb, int count) {
+		return element.intersections(this, rb, count);
+	}
+
+	double profileX(double y, double cx) {
+		return element.lensProfileXforY(this, y, cx);
+	}
+
+	double profileDX(boolean entering, double y) {
+		return element.lensProfileDXforY(this, entering, y);
+	}
+}
@@ -0,0 +1,698 @@
+/***************************************************************************
+ *   Copyright (C) 2014 by Paul Lutus                                      *
+ *   lutusp@arachnoid.com                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package opticalraytracer;
+
+import static java.lang.Math.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// This class traces a scene without any display. The scene is
+// a SceneSnapshot, taken from the user interface or built from
+// bare values, so the tracer can be embedded where there is
+// no JFrame (java.awt.headless=true).
+
+final public class TraceEngine {
+
+	SceneSnapshot scene;
+	// the parts of the scene
+	ProgramValues programValues;
+	ArrayList<OpticalComponent> componentList;
+	// an upper limit on the beamCount value
+	int maxLightRays = 1000;
+	// the trace threads of all the engines, so that traces running
+	// at once share the processors instead of each taking them all,
+	// one pool for each traceThreads setting used
+	private static final HashMap<Integer, ForkJoinPool> tracePools =
+			new HashMap<>();
+	ComponentTree componentTree = null;
+	// rays traced together, few enough for the
+	// columns of a batch to stay in cache
+	static final int batchSize = 1024;
+	// the work items a streamed trace holds at once
+	static final int streamItems = 4096;
+	int[] surfaceSequence = null;
+	// set by cancel(), the trace in progress stops early
+	// and returns null, cleared by the caller
+	volatile boolean cancelled = false;
+	// the last trace, in world coordinates, and what it depended on --
+	// a change of view alone (pan, zoom, colors) reuses it
+	private Object[] cachedKey = null;
+	private int cachedHash = 0;
+	private SegmentStore cachedResults = null;
+	// a progressive trace: pass 0 traces every coarseStride'th ray in
+	// one wavelength, pass 1 the rest of that wavelength's rays and
+	// fullPass the other wavelengths -- the items traced so far are
+	// kept for the next pass
+	static final int coarseStride = 8;
+	static final int fullPass = 2;
+	private Object[] partialKey = null;
+	private SegmentStore partialResults = null;
+	private boolean[] partialTraced = null;
+	// true if the last trace() returned every work item
+	boolean complete = false;
+	// the work items the last trace() traced, none if it
+	// returned the cached trace
+	int tracedItems = 0;
+
+	// an engine whose scene is supplied by setScene()
+
+	TraceEngine() {
+	}
+
+	// an engine with a scene of its own, built from copies
+	// of the given values -- later changes to them have no effect
+
+	public TraceEngine(ProgramValues values, List<ObjectValues> objects) {
+		this(SceneSnapshot.fromValues(values, objects));
+	}
+
+	public TraceEngine(SceneSnapshot scene) {
+		setScene(scene);
+	}
+
+	// the scene for the following traces
+
+	public void setScene(SceneSnapshot scene) {
+		this.scene = scene;
+		programValues = scene.programValues;
+		componentList = scene.components;
+	}
+
+	// traces the scene and returns the segments of each work item,
+	// one (ray, dispersion beam) pair, in sequential trace order,
+	// or null if the beam source and rotation planes coincide
+
+	public SegmentStore trace() {
+		return trace(fullPass);
+	}
+
+	// traces the work items of the passes up to pass that earlier
+	// passes of the same scene haven't, and returns all those
+	// traced so far -- the complete trace, if there is one for
+	// this scene, is returned for any pass
+
+	public SegmentStore trace(int pass) {
+		complete = false;
+		tracedItems = 0;
+		double xSource = programValues.xBeamSourceRefPlane;
+		double xTarget = programValues.xBeamRotationPlane;
+		if (xSource == xTarget) {
+			return null;
+		}
+		Object[] key = traceKey();
+		int hash = Arrays.deepHashCode(key);
+		if (cachedResults != null && hash == cachedHash
+				&& Arrays.deepEquals(key, cachedKey)) {
+			complete = true;
+			return cachedResults;
+		}
+		if (partialResults == null || !Arrays.deepEquals(key, partialKey)) {
+			partialResults = null;
+			partialKey = key;
+		}
+		WorkItems w = new WorkItems();
+		int dbeams = w.dbeams;
+		int items = w.items;
+		componentTree = componentTree(componentList);
+		surfaceSequence = surfaceSequence(componentList);
+		boolean[] traced = (partialResults == null) ? new boolean[items]
+				: Arrays.copyOf(partialTraced, items);
+		// the items of this pass not yet traced
+		int[] order = new int[items];
+		int size = 0;
+		boolean all = true;
+		for (int n = 0; n < items; n++) {
+			if (!traced[n]) {
+				if (inPass(n / dbeams, n % dbeams, dbeams, pass)) {
+					order[size++] = n;
+				} else {
+					all = false;
+				}
+			}
+		}
+		// the segments of each thread's share of the items,
+		// and of the earlier passes
+		List<SegmentStore> stores = Collections
+				.synchronizedList(new ArrayList<SegmentStore>());
+		if (partialResults != null) {
+			stores.add(partialResults);
+		}
+		traceItems(w, order, size, stores);
+		if (cancelled) {
+			return null;
+		}
+		tracedItems = size;
+		SegmentStore results = SegmentStore.merge(stores, 0, items, dbeams,
+				componentList);
+		if (!all) {
+			for (int k = 0; k < size; k++) {
+				traced[order[k]] = true;
+			}
+			partialResults = results;
+			partialTraced = traced;
+			return results;
+		}
+		partialResults = null;
+		partialTraced = null;
+		partialKey = null;
+		cachedKey = key;
+		cachedHash = hash;
+		cachedResults = results;
+		complete = true;
+		return results;
+	}
+
+	// receives the segments of a streamed trace
+
+	public interface SegmentSink {
+		public void write(SegmentStore segments) throws IOException;
+	}
+
+	// traces the scene streamItems work items at a time, handing the
+	// segments of each group to sink in trace order before tracing
+	// the next, so that memory holds one group however long the trace
+	// -- returns false if the trace isn't possible or was cancelled,
+	// the cached trace isn't used or replaced
+
+	public boolean trace(SegmentSink sink) throws IOException {
+		if (programValues.xBeamSourceRefPlane == programValues.xBeamRotationPlane) {
+			return false;
+		}
+		WorkItems w = new WorkItems();
+		componentTree = componentTree(componentList);
+		surfaceSequence = surfaceSequence(componentList);
+		int[] order = new int[min(streamItems, w.items)];
+		for (int first = 0; first < w.items && !cancelled; first += streamItems) {
+			int size = min(streamItems, w.items - first);
+			for (int k = 0; k < size; k++) {
+				order[k] = first + k;
+			}
+			List<SegmentStore> stores = Collections
+					.synchronizedList(new ArrayList<SegmentStore>());
+			traceItems(w, order, size, stores);
+			if (cancelled) {
+				break;
+			}
+			sink.write(SegmentStore.merge(stores, first, size, w.dbeams,
+					componentList));
+		}
+		return !cancelled;
+	}
+
+	// the rays of the current scene, one work item per (ray, dbeam)
+	// pair, in sequential trace order
+
+	final class WorkItems {
+		final double xSource = programValues.xBeamSourceRefPlane;
+		final double xTarget = programValues.xBeamRotationPlane;
+		final int count = min(max(programValues.beamCount, 1), maxLightRays);
+		final int dbeams = max(programValues.dispersionBeams, 1);
+		final int items = count * dbeams;
+		final double[] sourceY = new double[items];
+		final double[] targetY = new double[items];
+		final double[] wavelengths = new double[items];
+
+		WorkItems() {
+			double ba = -programValues.beamAngle * Common.radians;
+			double tba = tan(ba) * (xSource - xTarget);
+			double min = programValues.yStartBeamPos;
+			double max = programValues.yEndBeamPos;
+			double topcount = max(programValues.beamCount - 1, 1);
+			double top = max(programValues.dispersionBeams - 1, 1);
+			for (int ray = 0; ray < count; ray++) {
+				double y = Common.ntrp(ray, 0, topcount, min, max);
+				double mya = (programValues.divergingSource) ? 0 : y;
+				mya += tba;
+				for (int dbeam = 0; dbeam < dbeams; dbeam++) {
+					int n = ray * dbeams + dbeam;
+					sourceY[n] = mya;
+					targetY[n] = y;
+					if (programValues.dispersionBeams > 0) {
+						// h = hue component of HSV
+						double h = Common.ntrp(dbeam, 0, top, 0, 1);
+						wavelengths[n] = new WavelengthColor(h).wvl;
+					}
+				}
+			}
+		}
+	}
+
+	// traces the work items order[0 .. size) of w, on the
+	// trace threads if there are several, adding their segments
+	// to stores
+
+	void traceItems(WorkItems w, int[] order, int size,
+			List<SegmentStore> stores) {
+		int threads = traceThreads();
+		if (threads > 1 && size > 1) {
+			TraceTask task = new TraceTask(0, size, max(size / (threads * 4), 1),
+					w.dbeams, w.xSource, w.xTarget, w.sourceY, w.targetY,
+					w.wavelengths, order, stores);
+			tracePool(threads).invoke(task);
+		} else {
+			traceItems(0, size, w.dbeams, w.xSource, w.xTarget, w.sourceY,
+					w.targetY, w.wavelengths, order, stores);
+		}
+	}
+
+	// true if work item (ray, dbeam) is traced by the given pass
+
+	static boolean inPass(int ray, int dbeam, int dbeams, int pass) {
+		if (pass >= fullPass) {
+			return true;
+		}
+		return dbeam == dbeams / 2 && (pass > 0 || ray % coarseStride == 0);
+	}
+
+	// the number of work items traced by the passes up to pass,
+	// for the current scene
+
+	int passItems(int pass) {
+		int count = min(max(programValues.beamCount, 1), maxLightRays);
+		int dbeams = max(programValues.dispersionBeams, 1);
+		if (pass >= fullPass) {
+			return count * dbeams;
+		}
+		return (pass > 0) ? count : (count + coarseStride - 1) / coarseStride;
+	}
+
+	// everything a trace depends on: the components, which a snapshot
+	// replaces when they change, and the beam and trace settings
+
+	private Object[] traceKey() {
+		ProgramValues pv = programValues;
+		return new Object[] { componentList.toArray(), maxLightRays,
+				pv.xBeamSourceRefPlane, pv.xBeamRotationPlane, pv.beamAngle,
+				pv.yStartBeamPos, pv.yEndBeamPos, pv.beamCount,
+				pv.dispersionBeams, pv.divergingSource, pv.maxIntersections,
+				pv.virtualSpaceSize, pv.interLensEpsilon, pv.sequentialMode,
+				pv.surfaceOrder };
+	}
+
+	// a hash of traceKey() that's the same from one run to the next,
+	// for telling which scene a saved trace came from -- the
+	// components are hashed by their values
+
+	public long sceneHash() {
+		long h = Common.hashSeed;
+		for (Object v : traceKey()) {
+			if (v instanceof Object[]) {
+				for (Object oc : (Object[]) v) {
+					h = ((OpticalComponent) oc).values.valueHash(h);
+				}
+			} else {
+				h = Common.hash64(h, String.valueOf(v));
+			}
+		}
+		return h;
+	}
+
+	// all the segments of a trace, empty if
+	// the trace isn't possible
+
+	public SegmentStore traceLines() {
+		SegmentStore results = trace();
+		return (results != null) ? results : new SegmentStore(componentList);
+	}
+
+	// asks the trace in progress, if any, to stop
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	// the number of threads to trace with,
+	// a traceThreads value of zero means all processors
+
+	int traceThreads() {
+		int threads = programValues.traceThreads;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		return threads;
+	}
+
+	// a hierarchy over the components for large scenes,
+	// or null to search the list directly
+
+	ComponentTree componentTree(ArrayList<OpticalComponent> list) {
+		int threshold = programValues.componentTreeThreshold;
+		if (threshold <= 0 || list.size() < threshold) {
+			return null;
+		}
+		return (componentTree == null) ? new ComponentTree(list)
+				: componentTree.update(list);
+	}
+
+	// in sequential mode, the list positions of the active components
+	// in the declared surface order, otherwise null
+
+	int[] surfaceSequence(ArrayList<OpticalComponent> list) {
+		if (!programValues.sequentialMode) {
+			return null;
+		}
+		ArrayList<Integer> seq = new ArrayList<>();
+		String order = programValues.surfaceOrder.trim();
+		if (order.length() == 0) {
+			for (int i = 0; i < list.size(); i++) {
+				seq.add(i);
+			}
+		} else {
+			for (String name : order.split(",")) {
+				name = name.trim();
+				for (int i = 0; i < list.size(); i++) {
+					if (list.get(i).values.name.equals(name)) {
+						seq.add(i);
+						break;
+					}
+				}
+			}
+		}
+		int[] result = new int[seq.size()];
+		int n = 0;
+		for (int i : seq) {
+			if (list.get(i).values.active) {
+				result[n++] = i;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	// the shared pool for a traceThreads setting -- a pool is never
+	// shut down, since another engine may be about to invoke on it,
+	// and the threads of a pool no longer used idle out on their own
+
+	static synchronized ForkJoinPool tracePool(int threads) {
+		ForkJoinPool pool = tracePools.get(threads);
+		if (pool == null) {
+			pool = new ForkJoinPool(threads);
+			tracePools.put(threads, pool);
+		}
+		return pool;
+	}
+
+	// traces the work items order[from .. to), their
+	// segments are added to stores as one more store
+
+	void traceItems(int from, int to, int dbeams, double xSource,
+			double xTarget, double[] sourceY, double[] targetY,
+			double[] wavelengths, int[] order, List<SegmentStore> stores) {
+		SegmentStore results = new SegmentStore(componentList,
+				(to - from) * 4);
+		stores.add(results);
+		RayBatch rb = new RayBatch(min(batchSize, max(to - from, 1)));
+		NearestHit hit = new NearestHit();
+		// candidate intersection points, as x,y pairs
+		double[] points = new double[ElementBase.MAX_POINTS * 2];
+		for (int start = from; start < to && !cancelled; start += rb.capacity) {
+			rb.clear();
+			for (int k = start; k < min(start + rb.capacity, to); k++) {
+				int n = order[k];
+				rb.add(n, xSource, sourceY[n], xTarget, targetY[n],
+						wavelengths[n], surfaceSequence != null);
+			}
+			traceBatch(rb, componentList, componentTree,
+					surfaceSequence, programValues.maxIntersections, dbeams,
+					hit, points, results);
+		}
+	}
+
+	// splits the work items until they are small enough
+	// to be traced on one thread
+
+	@SuppressWarnings("serial")
+	final class TraceTask extends RecursiveAction {
+		int from, to, grain, dbeams;
+		double xSource, xTarget;
+		double[] sourceY, targetY, wavelengths;
+		int[] order;
+		List<SegmentStore> stores;
+
+		TraceTask(int from, int to, int grain, int dbeams, double xSource,
+				double xTarget, double[] sourceY, double[] targetY,
+				double[] wavelengths, int[] order, List<SegmentStore> stores) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.dbeams = dbeams;
+			this.xSource = xSource;
+			this.xTarget = xTarget;
+			this.sourceY = sourceY;
+			this.targetY = targetY;
+			this.wavelengths = wavelengths;
+			this.order = order;
+			this.stores = stores;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				traceItems(from, to, dbeams, xSource, xTarget, sourceY,
+						targetY, wavelengths, order, stores);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new TraceTask(from, mid, grain, dbeams, xSource,
+						xTarget, sourceY, targetY, wavelengths, order,
+						stores), new TraceTask(mid, to, grain, dbeams,
+						xSource, xTarget, sourceY, targetY, wavelengths,
+						order, stores));
+			}
+		}
+	}
+
+	// advances all the live rays of a batch one interaction at a time
+	// until each has been absorbed or has left the scene, adding
+	// their segments to results
+
+	void traceBatch(RayBatch rb, ArrayList<OpticalComponent> componentList,
+			ComponentTree tree, int[] sequence, int maxIntersections,
+			int dbeams, NearestHit hit, double[] points,
+			SegmentStore results) {
+		rb.epsilon = programValues.interLensEpsilon;
+		while (rb.liveCount > 0 && !cancelled) {
+			rb.clearHits();
+			rb.searchCount = 0;
+			int live = 0;
+			for (int k = 0; k < rb.liveCount; k++) {
+				int i = rb.live[k];
+				if (rb.bounces[i] >= maxIntersections) {
+					terminate(rb, i, maxIntersections, componentList, dbeams,
+							results);
+					continue;
+				}
+				rb.bounces[i]++;
+				rb.live[live++] = i;
+				// in sequential mode only the expected component is tried
+				int next = rb.next[i];
+				if (next >= 0 && next < sequence.length) {
+					int c = sequence[next];
+					rb.offerComponent(i, componentList.get(c), c, points);
+				}
+				if (rb.hitLens[i] < 0) {
+					// a ray that leaves the declared path
+					// is searched for normally from here on
+					rb.next[i] = -1;
+					rb.search[rb.searchCount++] = i;
+				}
+			}
+			rb.liveCount = live;
+			if (tree != null) {
+				for (int k = 0; k < rb.searchCount; k++) {
+					int i = rb.search[k];
+					hit.reset(rb.ax[i], rb.ay[i], rb.bx[i], rb.by[i],
+							rb.epsilon);
+					tree.findNearest(hit, points);
+					rb.store(i, hit);
+				}
+			} else {
+				// each component against all the rays still searching
+				for (int c = 0; c < componentList.size(); c++) {
+					rb.searchComponent(componentList.get(c), c);
+				}
+			}
+			live = 0;
+			for (int k = 0; k < rb.liveCount; k++) {
+				int i = rb.live[k];
+				if (interact(rb, i, maxIntersections, componentList, dbeams,
+						results)) {
+					rb.live[live++] = i;
+				}
+			}
+			rb.liveCount = live;
+		}
+	}
+
+	// applies ray i's nearest hit and returns true if the ray goes on
+
+	boolean interact(RayBatch rb, int i, int maxIntersections,
+			ArrayList<OpticalComponent> componentList, int dbeams,
+			SegmentStore results) {
+		int c = rb.hitLens[i];
+		rb.fromLens[i] = rb.toLens[i];
+		rb.toLens[i] = c;
+		if (c < 0) {
+			terminate(rb, i, maxIntersections, componentList, dbeams, results);
+			return false;
+		}
+		OpticalComponent lens = componentList.get(c);
+		double px = rb.hitX[i];
+		double py = rb.hitY[i];
+		int function = lens.values.function;
+		if (function == Common.OBJECT_ABSORBER) {
+			// absorber, so terminate ray trace
+			addLine(rb, i, px, py, 0, RayBatch.ABSORPTION, componentList,
+					dbeams, results);
+			return false;
+		}
+		boolean reflector = function == Common.OBJECT_REFLECTOR;
+		boolean internalReflection = false;
+		boolean entering = rb.entering[i];
+		int newEvent;
+		// incident light direction, normalized
+		double ix = rb.bx[i] - rb.ax[i];
+		double iy = rb.by[i] - rb.ay[i];
+		if (ix != 0 || iy != 0) {
+			double m = sqrt(ix * ix + iy * iy);
+			ix = ix / m;
+			iy = iy / m;
+		}
+		// surface is tangent to lens intersection point
+		// so dx is the first derivative, the curvature, at that
+		// point
+		double dx = lens.tangent(rb.hitLeft[i], entering, px, py);
+		// the surface normal, rotated to the lens angle
+		double cl = lens.cosAngle(), sl = lens.sinAngle();
+		double na = atan2(1, dx) + PI / 2;
+		double nx = cos(na) * cl - sin(na) * sl;
+		double ny = sin(na) * cl + cos(na) * sl;
+		double n1 = rb.ior[i], n2 = n1;
+		double sx, sy;
+		// test for reflector
+		if (reflector) {
+			newEvent = RayBatch.REFLECTION;
+			double d = ix * nx + iy * ny;
+			sx = ix - nx * d * 2;
+			sy = iy - ny * d * 2;
+		} else {
+			// Snell's Law refraction calculation block
+			// a bit more complicated than reflection
+			double abbe = lens.values.dispersion;
+			double wavelength = rb.wavelength[i];
+			double mediaIOR = (wavelength == 0 || abbe == 0) ? lens.values.ior
+					: WavelengthColor.dispersionIndex(lens.values.ior,
+							wavelength, abbe);
+			n2 = (entering) ? mediaIOR : 1.0;
+			// the vector form of Snell's Law is required to deal with
+			// the case of acute angles between incident and surface
+			// normal, as in Common.snell2d()
+			double sn = 1;
+			double c1 = -(nx * ix + ny * iy);
+			if (c1 < 0) {
+				c1 = -c1;
+				sn = -1;
+			}
+			double r = n1 / n2;
+			double c2 = sqrt(1 - r * r * (1 - c1 * c1));
+			sx = ix * r + (sn * nx) * (r * c1 - c2);
+			sy = iy * r + (sn * ny) * (r * c1 - c2);
+			// if computed angle is too acute, expect
+			// math domain error, which signals
+			// total internal reflection (TIR)
+			if (Double.isNaN(sx) || Double.isNaN(sy)) {
+				// the result exceeds
+				// the critical angle of reflection
+				// so reflect the beam inside the lens
+				internalReflection = true;
+				newEvent = RayBatch.INTERNAL_REFLECTION;
+				double d = ix * nx + iy * ny;
+				sx = ix - nx * d * 2;
+				sy = iy - ny * d * 2;
+			} else {
+				newEvent = RayBatch.REFRACTION;
+			}
+		}
+		addLine(rb, i, px, py, atan2(ny, nx), newEvent, componentList, dbeams,
+				results);
+		// the new segment leaves the hit in the computed direction
+		rb.ax[i] = px;
+		rb.ay[i] = py;
+		rb.bx[i] = px + sx;
+		rb.by[i] = py + sy;
+		// a reflector always has entering = true
+		if (!reflector && !internalReflection) {
+			rb.entering[i] = !entering;
+			rb.ior[i] = n2;
+			// leaving a component, expect the next one
+			if (!entering && rb.next[i] >= 0) {
+				rb.next[i]++;
+			}
+		} else {
+			// reflected light may travel backward,
+			// so search everything from here on
+			rb.next[i] = -1;
+		}
+		return true;
+	}
+
+	// terminal line of ray i, to the space boundary
+
+	void terminate(RayBatch rb, int i, int maxIntersections,
+			ArrayList<OpticalComponent> componentList, int dbeams,
+			SegmentStore results) {
+		int newEvent = (rb.bounces[i] >= maxIntersections) ? RayBatch.INTERACTION_LIMIT
+				: RayBatch.TERMINATION;
+		double x1 = rb.ax[i], y1 = rb.ay[i], x2 = rb.bx[i], y2 = rb.by[i];
+		// choose nearest space boundary
+		double xq1 = (x2 - x1 > 0) ? programValues.virtualSpaceSize
+				: -programValues.virtualSpaceSize;
+		double yq1 = Common.ntrp(xq1, x1, x2, y1, y2);
+		double yq2 = (y2 - y1 > 0) ? programValues.virtualSpaceSize
+				: -programValues.virtualSpaceSize;
+		double xq2 = Common.ntrp(yq2, y1, y2, x1, x2);
+		if (abs(yq1) > abs(xq2)) {
+			addLine(rb, i, xq2, yq2, 0, newEvent, componentList, dbeams,
+					results);
+		} else {
+			addLine(rb, i, xq1, yq1, 0, newEvent, componentList, dbeams,
+					results);
+		}
+	}
+
+	// adds the line from ray i's current origin to x,y
+
+	void addLine(RayBatch rb, int i, double x, double y, double surfaceAngle,
+			int newEvent, ArrayList<OpticalComponent> componentList,
+			int dbeams, SegmentStore results) {
+		int n = rb.item[i];
+		int from = rb.fromLens[i];
+		int to = rb.toLens[i];
+		results.add(n / dbeams, n % dbeams, rb.wavelength[i], from, to,
+				rb.ax[i], rb.ay[i], x, y, surfaceAngle, rb.event[i], newEvent);
+		rb.event[i] = newEvent;
+	}
+}
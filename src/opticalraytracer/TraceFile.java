@@ -0,0 +1,367 @@
+/***************************************************************************
+ *   Copyright (C) 2014 by Paul Lutus                                      *
+ *   lutusp@arachnoid.com                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+
+package opticalraytracer;
+
+import static java.lang.Math.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+// The segments of a trace in a compact binary file, written by
+// TraceFile.Writer as the trace streams and read by mapping the file,
+// so any segment can be read without parsing those before it, and
+// with the exact values the table export rounds. All values are
+// little-endian:
+//
+// header, at offset 0:
+//   4 bytes "ORTB", int version, long scene hash (TraceEngine.sceneHash()),
+//   long row count (-1 if the writer couldn't seek back to set it,
+//   the rows then run to the end of the file), int data offset,
+//   int record size, then the column schema -- int count, and for
+//   each column its name, type code and record offset -- and the
+//   components -- int count, and for each its name and type, as
+//   SegmentStore labels them. A string is an int byte count and its
+//   UTF-8 bytes, a type code is a byte, 'i' int, 'b' byte, 'd' double.
+//
+// data, at the data offset (a multiple of 8):
+//   one fixed-width record per segment, in trace order, with
+//   the columns of SegmentStore.
+
+final public class TraceFile implements Closeable {
+	static final byte[] magic = "ORTB".getBytes(StandardCharsets.US_ASCII);
+	static final int version = 1;
+	static final int rowCountOffset = 16;
+	// the columns of a record
+	static final String[] columnNames = { "ray", "dbeam", "fromLens",
+			"toLens", "fromEvent", "toEvent", "wavelength", "ax", "ay", "bx",
+			"by", "surfaceAngle" };
+	static final byte[] columnTypes = { 'i', 'i', 'i', 'i', 'b', 'b', 'd',
+			'd', 'd', 'd', 'd', 'd' };
+	static final int[] columnOffsets = { 0, 4, 8, 12, 16, 17, 24, 32, 40, 48,
+			56, 64 };
+	static final int recordSize = 72;
+
+	final long sceneHash;
+	private final long size;
+	private final int dataOffset;
+	private final int recordBytes;
+	// the record offsets of the columns, from the file's schema
+	private final int[] offsets = new int[columnNames.length];
+	final String[] componentNames, componentTypes;
+	private final FileChannel channel;
+	// the file is mapped in regions of regionRecords
+	// records, a mapping can't exceed 2 GB
+	private final long regionRecords;
+	private final MappedByteBuffer[] regions;
+
+	public TraceFile(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer b = map(0, (int) min(channel.size(), Integer.MAX_VALUE));
+			byte[] m = new byte[magic.length];
+			b.get(m);
+			if (!Arrays.equals(m, magic) || b.getInt() != version) {
+				throw new IOException("not a version " + version
+						+ " trace file: " + path);
+			}
+			sceneHash = b.getLong();
+			long rows = b.getLong();
+			dataOffset = b.getInt();
+			recordBytes = b.getInt();
+			if (recordBytes <= 0) {
+				throw new IOException("damaged trace file: " + path);
+			}
+			int columns = b.getInt();
+			Arrays.fill(offsets, -1);
+			for (int c = 0; c < columns; c++) {
+				String name = getString(b);
+				byte type = b.get();
+				int offset = b.getInt();
+				for (int k = 0; k < columnNames.length; k++) {
+					if (columnNames[k].equals(name) && columnTypes[k] == type) {
+						offsets[k] = offset;
+					}
+				}
+			}
+			for (int k = 0; k < columnNames.length; k++) {
+				if (offsets[k] < 0) {
+					throw new IOException("trace file has no column "
+							+ columnNames[k] + ": " + path);
+				}
+				// a column must lie wholly inside the record
+				if (offsets[k] + width(columnTypes[k]) > recordBytes) {
+					throw new IOException("damaged trace file: " + path);
+				}
+			}
+			int components = b.getInt();
+			componentNames = new String[components];
+			componentTypes = new String[components];
+			for (int c = 0; c < components; c++) {
+				componentNames[c] = getString(b);
+				componentTypes[c] = getString(b);
+			}
+			long available = (channel.size() - dataOffset) / recordBytes;
+			size = (rows < 0) ? available : min(rows, available);
+			regionRecords = Integer.MAX_VALUE / recordBytes;
+			regions = new MappedByteBuffer[(int) ((size + regionRecords - 1) / regionRecords)];
+			for (int r = 0; r < regions.length; r++) {
+				long records = min(regionRecords, size - r * regionRecords);
+				regions[r] = map(dataOffset + r * regionRecords * recordBytes,
+						(int) (records * recordBytes));
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw (e instanceof IOException) ? (IOException) e
+					: new IOException("damaged trace file: " + path, e);
+		}
+	}
+
+	private static int width(byte type) {
+		return (type == 'd') ? 8 : (type == 'i') ? 4 : 1;
+	}
+
+	private MappedByteBuffer map(long position, int length)
+			throws IOException {
+		MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY,
+				position, length);
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		return b;
+	}
+
+	private static String getString(ByteBuffer b) {
+		byte[] bytes = new byte[b.getInt()];
+		b.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// the number of segments
+
+	public long size() {
+		return size;
+	}
+
+	// the region holding segment i, and the position of
+	// its column k in that region
+
+	private ByteBuffer region(long i) {
+		return regions[(int) (i / regionRecords)];
+	}
+
+	private int at(long i, int k) {
+		return (int) (i % regionRecords) * recordBytes + offsets[k];
+	}
+
+	// the columns of segment i, as SegmentStore holds them
+
+	public int ray(long i) {
+		return region(i).getInt(at(i, 0));
+	}
+
+	public int dbeam(long i) {
+		return region(i).getInt(at(i, 1));
+	}
+
+	public int fromLens(long i) {
+		return region(i).getInt(at(i, 2));
+	}
+
+	public int toLens(long i) {
+		return region(i).getInt(at(i, 3));
+	}
+
+	public int fromEvent(long i) {
+		return region(i).get(at(i, 4));
+	}
+
+	public int toEvent(long i) {
+		return region(i).get(at(i, 5));
+	}
+
+	public double wavelength(long i) {
+		return region(i).getDouble(at(i, 6));
+	}
+
+	public double ax(long i) {
+		return region(i).getDouble(at(i, 7));
+	}
+
+	public double ay(long i) {
+		return region(i).getDouble(at(i, 8));
+	}
+
+	public double bx(long i) {
+		return region(i).getDouble(at(i, 9));
+	}
+
+	public double by(long i) {
+		return region(i).getDouble(at(i, 10));
+	}
+
+	// radians
+
+	public double surfaceAngle(long i) {
+		return region(i).getDouble(at(i, 11));
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	// writes the segments it's given as a trace file, the header
+	// first, then records as they arrive -- finish() completes the
+	// file, setting its row count if the channel can seek
+
+	static final class Writer implements TraceEngine.SegmentSink, Closeable {
+		private final WritableByteChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(
+				recordSize * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		// the file's position in the channel, -1 if it can't seek
+		private long start = -1;
+		private long rows = 0;
+
+		Writer(WritableByteChannel channel, long sceneHash,
+				List<OpticalComponent> components) throws IOException {
+			this.channel = channel;
+			if (channel instanceof FileChannel) {
+				try {
+					start = ((FileChannel) channel).position();
+				} catch (IOException e) {
+					// a pipe
+				}
+			}
+			ByteBuffer h = ByteBuffer.allocate(header(components)).order(
+					ByteOrder.LITTLE_ENDIAN);
+			h.put(magic);
+			h.putInt(version);
+			h.putLong(sceneHash);
+			h.putLong(-1);
+			h.putInt(h.capacity());
+			h.putInt(recordSize);
+			h.putInt(columnNames.length);
+			for (int k = 0; k < columnNames.length; k++) {
+				putString(h, columnNames[k]);
+				h.put(columnTypes[k]);
+				h.putInt(columnOffsets[k]);
+			}
+			h.putInt(components.size());
+			for (OpticalComponent oc : components) {
+				putString(h, oc.values.name);
+				putString(h, Common.getObjectType(oc.values.function));
+			}
+			h.position(h.capacity());
+			h.flip();
+			write(h);
+		}
+
+		// the header size, padded to a multiple of 8
+
+		private static int header(List<OpticalComponent> components) {
+			int n = 32 + 4;
+			for (String s : columnNames) {
+				n += 4 + s.length() + 1 + 4;
+			}
+			n += 4;
+			for (OpticalComponent oc : components) {
+				n += 8 + utf8(oc.values.name).length
+						+ utf8(Common.getObjectType(oc.values.function)).length;
+			}
+			return (n + 7) & ~7;
+		}
+
+		private static byte[] utf8(String s) {
+			return s.getBytes(StandardCharsets.UTF_8);
+		}
+
+		private static void putString(ByteBuffer b, String s) {
+			byte[] bytes = utf8(s);
+			b.putInt(bytes.length);
+			b.put(bytes);
+		}
+
+		private void write(ByteBuffer b) throws IOException {
+			while (b.hasRemaining()) {
+				channel.write(b);
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			write(buffer);
+			buffer.clear();
+		}
+
+		public void write(SegmentStore s) throws IOException {
+			for (int i = 0; i < s.size(); i++) {
+				if (buffer.remaining() < recordSize) {
+					flush();
+				}
+				int p = buffer.position();
+				buffer.putInt(p, s.ray[i]);
+				buffer.putInt(p + 4, s.dbeam[i]);
+				buffer.putInt(p + 8, s.fromLens[i]);
+				buffer.putInt(p + 12, s.toLens[i]);
+				buffer.put(p + 16, s.fromEvent[i]);
+				buffer.put(p + 17, s.toEvent[i]);
+				buffer.putDouble(p + 24, s.wavelength[i]);
+				buffer.putDouble(p + 32, s.ax[i]);
+				buffer.putDouble(p + 40, s.ay[i]);
+				buffer.putDouble(p + 48, s.bx[i]);
+				buffer.putDouble(p + 56, s.by[i]);
+				buffer.putDouble(p + 64, s.surfaceAngle[i]);
+				buffer.position(p + recordSize);
+			}
+			rows += s.size();
+		}
+
+		// writes what's buffered and sets the row count,
+		// the channel stays open
+
+		void finish() throws IOException {
+			flush();
+			if (start >= 0) {
+				ByteBuffer b = ByteBuffer.allocate(8).order(
+						ByteOrder.LITTLE_ENDIAN);
+				b.putLong(0, rows);
+				try {
+					((FileChannel) channel).write(b, start + rowCountOffset);
+				} catch (IOException e) {
+					// can't seek after all, the reader counts the rows
+				}
+			}
+		}
+
+		public void close() throws IOException {
+			finish();
+			channel.close();
+		}
+	}
+}
@@ -53,6 +53,26 @@ public class ValueManager {
 		return sb.toString();
 	}
 
+	// a hash of the values that's the same from one run to the next,
+	// unlike getValues() the doubles are exact and not localized
+
+	protected long valueHash(long h) {
+		ArrayList<String> list = new ArrayList<>();
+		for (Field f : getClass().getDeclaredFields()) {
+			try {
+				f.setAccessible(true);
+				list.add(f.getName() + "=" + f.get(this));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		Collections.sort(list);
+		for (String s : list) {
+			h = Common.hash64(h, s);
+		}
+		return h;
+	}
+
 	@SuppressWarnings("rawtypes")
 	protected String getOneValue(String tag) {
 		String result = "";
@@ -102,6 +122,36 @@ public class ValueManager {
 		return result;
 	}
 
+	// an exact copy of the field values of another instance
+	// of the same class, without the round trip through text
+
+	protected void copyValues(ValueManager source) {
+		for (Field f : getClass().getDeclaredFields()) {
+			try {
+				f.set(this, f.get(source));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// true if every field of this instance equals
+	// the same field of another instance
+
+	protected boolean sameValues(ValueManager other) {
+		for (Field f : getClass().getDeclaredFields()) {
+			try {
+				if (!f.get(this).equals(f.get(other))) {
+					return false;
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@SuppressWarnings("rawtypes")
 	protected void setOneValue(String tag, String value) {
 		//p("setOneValue: key: " + tag + ", value: " + value);
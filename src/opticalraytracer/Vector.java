@@ -76,6 +76,13 @@ final public class Vector {
 		return new Vector(xx, yy);
 	}
 
+	// rotate by an angle given as its cosine and sine
+	public Vector rotate(double cosa, double sina) {
+		double xx = x * cosa - y * sina;
+		double yy = y * cosa + x * sina;
+		return new Vector(xx, yy);
+	}
+
 	public Vector rotate(Vector v, double angleRadians) {
 		double xx = v.x * cos(angleRadians) - v.y * sin(angleRadians);
 		double yy = v.y * cos(angleRadians) + v.x * sin(angleRadians);
@@ -0,0 +1,145 @@
+/***************************************************************************
+ *   Copyright (C) 2014 by Paul Lutus                                      *
+ *   lutusp@arachnoid.com                                                  *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+
+package opticalraytracer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Compares the scalar and the batch intersection routines of the
+// curved elements. It isn't part of the application, it's compiled
+// against the application's classes:
+//
+// javac -cp <application classes> -d <dir> IntersectionBenchmark.java
+// java -cp <application classes>:<dir> opticalraytracer.IntersectionBenchmark [rounds]
+//
+// Both routines must produce the same candidate points, bit for bit.
+// Each routine is timed over rounds passes of one batch of rays, the
+// scalar routine one ray at a time and the batch routine all at once,
+// and the median of several passes is reported after a warm-up.
+
+final public class IntersectionBenchmark {
+
+	public static void main(String[] args) {
+		int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+		int[] curvatures = { Common.CURVATURE_SPHERICAL,
+				Common.CURVATURE_PARABOLIC, Common.CURVATURE_HYPERBOLIC };
+		for (int curvature : curvatures) {
+			ObjectValues values = new ObjectValues("benchmark");
+			values.leftCurvature = curvature;
+			values.rightCurvature = curvature;
+			values.xPos = 0.3;
+			values.yPos = 0.1;
+			values.angle = -5;
+			values.lensRadius = 1;
+			values.leftSphereRadius = 2;
+			values.leftZValue = 5;
+			OpticalComponent oc = new OpticalComponent(new ProgramValues(),
+					values);
+			run(oc.getElement(true).createGeometry(oc, true), rounds);
+		}
+	}
+
+	static void run(SurfaceGeometry sg, int rounds) {
+		int count = TraceEngine.batchSize;
+		RayBatch rb = new RayBatch(count);
+		Random random = new Random(1);
+		for (int k = 0; k < count; k++) {
+			double y = (random.nextDouble() * 2 - 1) * 1.2;
+			rb.add(k, -30, y + random.nextDouble() - 0.5, 0, y, 0, false);
+			rb.lanes[k] = k;
+		}
+		double[] pairs = new double[ElementBase.MAX_POINTS * 2];
+		int candidates = sg.intersections(rb, count);
+		int mismatches = 0;
+		for (int k = 0; k < count; k++) {
+			int n = sg.intersections(rb.ax[k], rb.ay[k], rb.bx[k], rb.by[k],
+					pairs);
+			for (int j = 0; j < n; j++) {
+				int row = j * rb.capacity + k;
+				if (Double.doubleToLongBits(pairs[j * 2]) != Double
+						.doubleToLongBits(rb.pointX[row])
+						|| Double.doubleToLongBits(pairs[j * 2 + 1]) != Double
+								.doubleToLongBits(rb.pointY[row])) {
+					mismatches += 1;
+				}
+			}
+		}
+		System.out.println(String.format(
+				"%s: %d rays, %d candidates each, mismatched points: %d", sg.element
+						.getClass().getSimpleName(), count, candidates,
+				mismatches));
+		// the first passes warm up the compiler, at least warmRounds
+		// rounds each whatever rounds is, the timed passes alternate
+		// the two routines and their medians are reported, the sums of
+		// the accepted candidates are printed so that the work can't
+		// be optimized away, and must agree
+		int warmup = 3, timed = 7, warmRounds = 1000;
+		double[] scalar = new double[timed], batch = new double[timed];
+		double scalarSum = 0, batchSum = 0;
+		for (int pass = 0; pass < warmup + timed; pass++) {
+			int passRounds = (pass < warmup) ? Math.max(rounds, warmRounds)
+					: rounds;
+			scalarSum = 0;
+			batchSum = 0;
+			long t = System.nanoTime();
+			for (int r = 0; r < passRounds; r++) {
+				for (int k = 0; k < count; k++) {
+					int n = sg.intersections(rb.ax[k], rb.ay[k], rb.bx[k],
+							rb.by[k], pairs);
+					for (int j = 0; j < n; j++) {
+						scalarSum += valid(pairs[j * 2]);
+					}
+				}
+			}
+			long ts = System.nanoTime() - t;
+			t = System.nanoTime();
+			for (int r = 0; r < passRounds; r++) {
+				int n = sg.intersections(rb, count);
+				for (int k = 0; k < n * rb.capacity; k++) {
+					batchSum += valid(rb.pointX[k]);
+				}
+			}
+			long tb = System.nanoTime() - t;
+			if (pass >= warmup) {
+				scalar[pass - warmup] = ts / ((double) rounds * count);
+				batch[pass - warmup] = tb / ((double) rounds * count);
+			}
+		}
+		double ms = median(scalar), mb = median(batch);
+		System.out.println(String.format(
+				"  scalar: %.1f ns/ray, batch: %.1f ns/ray, speedup %.2f"
+						+ " (sums %.6e, %.6e)", ms, mb, ms / mb, scalarSum,
+				batchSum));
+	}
+
+	static double median(double[] a) {
+		double[] s = a.clone();
+		Arrays.sort(s);
+		return s[s.length / 2];
+	}
+
+	// a rejected candidate is NaN
+
+	static double valid(double x) {
+		return Double.isNaN(x) ? 0 : x;
+	}
+}